@@ -0,0 +1,232 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.services.bigquery.model.Dataset;
+import com.google.api.services.bigquery.model.DatasetReference;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobConfigurationLoad;
+import com.google.api.services.bigquery.model.JobReference;
+import com.google.api.services.bigquery.model.JobStatistics;
+import com.google.api.services.bigquery.model.JobStatistics2;
+import com.google.api.services.bigquery.model.JobStatistics3;
+import com.google.api.services.bigquery.model.JobStatus;
+import com.google.api.services.bigquery.model.Table;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Fake BigQuery which records the jobs it receives for offline runs.
+ *
+ * <p>Like {@link FakeStorage}, the real client runs on top of a fake RPC layer. Jobs complete
+ * immediately, and load jobs create their destination table with the job's schema and the data
+ * rows of the CSV files in {@link FakeStorage}. Tables can also be created empty. Query jobs only
+ * evaluate {@code MERGE} statements, which insert all rows of the source table into the target.
+ */
+final class FakeBigQuery implements InvocationHandler {
+
+  private static final String LOCATION = "US";
+
+  private static final Pattern MERGE_PATTERN =
+      Pattern.compile("MERGE `([^`]+)` AS target.*?FROM `([^`]+)`", Pattern.DOTALL);
+
+  private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+  private final Map<String, Table> tables = new ConcurrentHashMap<>();
+  private final Map<String, ImmutableList<String>> tableRows = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<JobConfigurationLoad> loadJobs =
+      new ConcurrentLinkedQueue<>();
+  private final FakeStorage storage;
+
+  /** @param storage holds the files of the load jobs. */
+  FakeBigQuery(FakeStorage storage) {
+    this.storage = storage;
+  }
+
+  /** Creates a BigQuery client backed by this fake. */
+  BigQuery createService(String projectId) {
+    var bigQueryRpc =
+        (BigQueryRpc)
+            Proxy.newProxyInstance(
+                BigQueryRpc.class.getClassLoader(), new Class<?>[] {BigQueryRpc.class}, this);
+
+    return BigQueryOptions.newBuilder()
+        .setProjectId(projectId)
+        .setCredentials(NoCredentials.getInstance())
+        .setServiceRpcFactory(options -> bigQueryRpc)
+        .build()
+        .getService();
+  }
+
+  /** Returns the configurations of all load jobs received so far. */
+  ImmutableList<JobConfigurationLoad> getLoadJobs() {
+    return ImmutableList.copyOf(loadJobs);
+  }
+
+  /** Returns the CSV data rows of the table, empty if it does not exist. */
+  ImmutableList<String> getRows(String projectId, String datasetId, String tableId) {
+    return tableRows.getOrDefault(tableKey(projectId, datasetId, tableId), ImmutableList.of());
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "create":
+        if (args[0] instanceof Job) {
+          return createJob((Job) args[0]);
+        }
+        if (args[0] instanceof Table) {
+          return createTable((Table) args[0]);
+        }
+        break;
+
+      case "getJob":
+        return jobs.get((String) args[1]);
+
+      case "getDataset":
+        // every dataset exists.
+        return new Dataset()
+            .setDatasetReference(
+                new DatasetReference()
+                    .setProjectId((String) args[0])
+                    .setDatasetId((String) args[1]))
+            .setLocation(LOCATION);
+
+      case "getTable":
+        return tables.get(tableKey((String) args[0], (String) args[1], (String) args[2]));
+
+      case "deleteTable":
+        var key = tableKey((String) args[0], (String) args[1], (String) args[2]);
+        tableRows.remove(key);
+        return tables.remove(key) != null;
+
+      case "toString":
+        return "FakeBigQueryRpc";
+
+      case "hashCode":
+        return System.identityHashCode(proxy);
+
+      case "equals":
+        return proxy == args[0];
+
+      default:
+        break;
+    }
+
+    throw new UnsupportedOperationException("FakeBigQuery does not support: " + method);
+  }
+
+  private Job createJob(Job job) {
+    var reference =
+        (job.getJobReference() == null) ? new JobReference() : job.getJobReference().clone();
+    if (reference.getJobId() == null) {
+      reference.setJobId(UUID.randomUUID().toString());
+    }
+    reference.setLocation(LOCATION);
+
+    var now = System.currentTimeMillis();
+    var statistics = new JobStatistics().setCreationTime(now).setStartTime(now).setEndTime(now);
+    var load = job.getConfiguration().getLoad();
+    if (load != null) {
+      loadJobs.add(load);
+      statistics.setLoad(new JobStatistics3());
+      var destination = load.getDestinationTable();
+      var key =
+          tableKey(
+              destination.getProjectId(), destination.getDatasetId(), destination.getTableId());
+      tableRows.put(key, readRows(load.getSourceUris()));
+      tables.put(
+          key,
+          new Table()
+              .setTableReference(
+                  new TableReference()
+                      .setProjectId(destination.getProjectId())
+                      .setDatasetId(destination.getDatasetId())
+                      .setTableId(destination.getTableId()))
+              .setSchema(load.getSchema()));
+    } else {
+      statistics.setQuery(new JobStatistics2());
+      var merge = MERGE_PATTERN.matcher(job.getConfiguration().getQuery().getQuery());
+      if (merge.find()) {
+        var sourceRows = getRows(merge.group(2));
+        tableRows.merge(
+            merge.group(1),
+            sourceRows,
+            (targetRows, newRows) ->
+                ImmutableList.<String>builder().addAll(targetRows).addAll(newRows).build());
+      }
+    }
+
+    var completedJob =
+        job.clone()
+            .setId(reference.getProjectId() + ":" + LOCATION + "." + reference.getJobId())
+            .setJobReference(reference)
+            .setStatistics(statistics)
+            .setStatus(new JobStatus().setState("DONE"));
+    jobs.put(reference.getJobId(), completedJob);
+    return completedJob;
+  }
+
+  private Table createTable(Table table) {
+    var reference = table.getTableReference();
+    var key = tableKey(reference.getProjectId(), reference.getDatasetId(), reference.getTableId());
+    if (tables.putIfAbsent(key, table) != null) {
+      throw new BigQueryException(HttpURLConnection.HTTP_CONFLICT, "Already Exists: " + key);
+    }
+    tableRows.put(key, ImmutableList.of());
+    return table;
+  }
+
+  private ImmutableList<String> getRows(String tableKey) {
+    return tableRows.getOrDefault(tableKey, ImmutableList.of());
+  }
+
+  /** Reads the rows of the CSV files, skipping their header. */
+  private ImmutableList<String> readRows(List<String> sourceUris) {
+    var rows = ImmutableList.<String>builder();
+    for (var sourceUri : sourceUris) {
+      var path = sourceUri.substring("gs://".length()).split("/", 2);
+      var content = storage.getContent(path[0], path[1]);
+      if (content == null) {
+        throw new BigQueryException(HttpURLConnection.HTTP_NOT_FOUND, "Not found: " + sourceUri);
+      }
+      Splitter.on('\n').omitEmptyStrings().splitToStream(new String(content, UTF_8))
+          .skip(1)
+          .forEach(rows::add);
+    }
+    return rows.build();
+  }
+
+  private static String tableKey(String projectId, String datasetId, String tableId) {
+    return String.join(".", projectId, datasetId, tableId);
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.spi.v1.StorageRpc;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory Cloud Storage for offline runs.
+ *
+ * <p>The real {@link Storage} client is used on top of a fake RPC layer which keeps the objects
+ * in memory, so the client side behaviour (request building, retries, channels) is measured too.
+ * Only the RPCs used by this tool are implemented, copies complete in a single rewrite call.
+ */
+final class FakeStorage implements InvocationHandler {
+
+  private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+  private final Map<String, StorageObject> objectMetadata = new ConcurrentHashMap<>();
+  private final Map<String, StorageObject> pendingUploads = new ConcurrentHashMap<>();
+  private final Map<String, ByteArrayOutputStream> pendingUploadContent =
+      new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong bytesStored = new AtomicLong();
+
+  /** Creates a Storage client backed by this fake. */
+  Storage createService() {
+    var storageRpc =
+        (StorageRpc)
+            Proxy.newProxyInstance(
+                StorageRpc.class.getClassLoader(), new Class<?>[] {StorageRpc.class}, this);
+
+    return StorageOptions.newBuilder()
+        .setProjectId("fake-project")
+        .setCredentials(NoCredentials.getInstance())
+        .setServiceRpcFactory(options -> storageRpc)
+        .build()
+        .getService();
+  }
+
+  int getObjectCount() {
+    return objects.size();
+  }
+
+  long getBytesStored() {
+    return bytesStored.get();
+  }
+
+  /** Returns the content of the object, or {@code null} if it does not exist. */
+  byte[] getContent(String bucket, String name) {
+    return objects.get(key(bucket, name));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+    switch (method.getName()) {
+      case "create":
+        if (args[0] instanceof StorageObject) {
+          var content = ((InputStream) args[1]).readAllBytes();
+          return store((StorageObject) args[0], content);
+        }
+        break;
+
+      case "get":
+        if (args[0] instanceof StorageObject) {
+          var object = (StorageObject) args[0];
+          return objectMetadata.get(key(object.getBucket(), object.getName()));
+        }
+        if (args[0] instanceof Bucket) {
+          // every bucket exists.
+          return new Bucket().setName(((Bucket) args[0]).getName());
+        }
+        break;
+
+      case "delete":
+        if (args[0] instanceof StorageObject) {
+          var object = (StorageObject) args[0];
+          objectMetadata.remove(key(object.getBucket(), object.getName()));
+          return objects.remove(key(object.getBucket(), object.getName())) != null;
+        }
+        break;
+
+      case "open":
+        if (args[0] instanceof StorageObject) {
+          var uploadId = UUID.randomUUID().toString();
+          pendingUploads.put(uploadId, (StorageObject) args[0]);
+          pendingUploadContent.put(uploadId, new ByteArrayOutputStream());
+          return uploadId;
+        }
+        break;
+
+      case "write":
+      case "writeWithResponse":
+        var uploadId = (String) args[0];
+        pendingUploadContent.get(uploadId)
+            .write((byte[]) args[1], (int) args[2], (int) args[4]);
+        if ((boolean) args[5]) {
+          var object = pendingUploads.remove(uploadId);
+          var stored = store(object, pendingUploadContent.remove(uploadId).toByteArray());
+          return method.getReturnType().equals(Void.TYPE) ? null : stored;
+        }
+        return null;
+
+      case "openRewrite":
+        var rewriteRequest = (StorageRpc.RewriteRequest) args[0];
+        var content =
+            objects.get(key(rewriteRequest.source.getBucket(), rewriteRequest.source.getName()));
+        if (content == null) {
+          throw new StorageException(404, "no such object: " + rewriteRequest.source.getName());
+        }
+        var copy = store(rewriteRequest.target, content);
+        return new StorageRpc.RewriteResponse(
+            rewriteRequest, copy, content.length, /*isDone=*/ true, null, content.length);
+
+      case "toString":
+        return "FakeStorageRpc";
+
+      case "hashCode":
+        return System.identityHashCode(proxy);
+
+      case "equals":
+        return proxy == args[0];
+
+      default:
+        break;
+    }
+
+    throw new UnsupportedOperationException("FakeStorage does not support: " + method);
+  }
+
+  private StorageObject store(StorageObject object, byte[] content) {
+    var metadata =
+        new StorageObject()
+            .setBucket(object.getBucket())
+            .setName(object.getName())
+            .setContentType(object.getContentType())
+            .setSize(BigInteger.valueOf(content.length))
+            .setGeneration(generation.incrementAndGet());
+
+    objects.put(key(object.getBucket(), object.getName()), content);
+    objectMetadata.put(key(object.getBucket(), object.getName()), metadata);
+    bytesStored.addAndGet(content.length);
+    return metadata;
+  }
+
+  private static String key(String bucket, String name) {
+    return bucket + "/" + name;
+  }
+}
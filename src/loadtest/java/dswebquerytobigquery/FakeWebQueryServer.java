@@ -0,0 +1,215 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP server serving generated SA360 WebQuery HTML reports.
+ *
+ * <p>The report is generated while it is streamed, its size and speed are controlled per request
+ * through the query parameters:
+ * <ul>
+ *   <li>{@code rid} - report id, also seeds the generated values.
+ *   <li>{@code rows} - number of data rows.
+ *   <li>{@code latencyMillis} - delay before the first byte is sent.
+ *   <li>{@code bytesPerSecond} - bandwidth limit of the response, 0 for unlimited.
+ * </ul>
+ */
+final class FakeWebQueryServer implements AutoCloseable {
+
+  private static final String[] CAMPAIGNS = {
+      "Brand - Exact", "Brand - Broad", "Generic, Shoes", "Generic \"Sale\"", "Competitor"};
+  private static final String[] DEVICES = {"Desktop", "Mobile", "Tablet"};
+  private static final String[] ENGINES = {"Google", "Microsoft", "Yahoo Japan"};
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private final HttpServer httpServer;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong bytesServed = new AtomicLong();
+
+  private FakeWebQueryServer(HttpServer httpServer) {
+    this.httpServer = httpServer;
+  }
+
+  /** Starts the server on an ephemeral port of the loopback interface. */
+  static FakeWebQueryServer start() throws IOException {
+    var httpServer =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    var server = new FakeWebQueryServer(httpServer);
+    httpServer.createContext("/ds/reports/download", server::handle);
+    httpServer.setExecutor(server.executor);
+    httpServer.start();
+    return server;
+  }
+
+  /** Returns the WebQuery URL of a generated report. */
+  String reportUrl(long reportId, int rows, long latencyMillis, long bytesPerSecond) {
+    return String.format(
+        "http://%s:%s/ds/reports/download?rid=%s&rows=%s&latencyMillis=%s&bytesPerSecond=%s",
+        httpServer.getAddress().getHostString(),
+        httpServer.getAddress().getPort(),
+        reportId,
+        rows,
+        latencyMillis,
+        bytesPerSecond);
+  }
+
+  long getRequestCount() {
+    return requestCount.get();
+  }
+
+  long getBytesServed() {
+    return bytesServed.get();
+  }
+
+  @Override
+  public void close() {
+    httpServer.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requestCount.incrementAndGet();
+
+    try {
+      if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+        exchange.sendResponseHeaders(401, -1);
+        return;
+      }
+
+      var query = exchange.getRequestURI().getRawQuery();
+      Map<String, String> params =
+          Splitter.on('&').withKeyValueSeparator('=').split((query == null) ? "" : query);
+      var reportId = Long.parseLong(params.getOrDefault("rid", "1"));
+      var rows = Integer.parseInt(params.getOrDefault("rows", "1000"));
+      var bytesPerSecond = Long.parseLong(params.getOrDefault("bytesPerSecond", "0"));
+
+      Thread.sleep(Long.parseLong(params.getOrDefault("latencyMillis", "0")));
+
+      exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+      exchange.sendResponseHeaders(200, 0);
+
+      try (var output = new ThrottledOutputStream(exchange.getResponseBody(), bytesPerSecond)) {
+        writeReport(output, reportId, rows);
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void writeReport(OutputStream output, long reportId, int rows)
+      throws IOException {
+    var html = new StringBuilder(CHUNK_SIZE * 2);
+    html.append("<html><body><table>")
+        .append("<colgroup><col class=\"date\"><col class=\"text\"><col class=\"text\">")
+        .append("<col class=\"text\"><col class=\"integral\"><col class=\"integral\">")
+        .append("<col class=\"decimal\"><col class=\"percent\"></colgroup>")
+        .append("<thead><tr><th>Date</th><th>Campaign</th><th>Device</th><th>Engine</th>")
+        .append("<th>Impr</th><th>Clicks</th><th>Cost</th><th>CTR (%)</th></tr></thead>")
+        .append("<tbody>");
+
+    for (int row = 0; row < rows; row++) {
+      var seed = reportId * 31 + row;
+      var impressions = 1000 + (seed * 7919) % 250_000;
+      var clicks = (seed * 104_729) % 5_000;
+      html.append("<tr><td>2026-10-")
+          .append(10 + row % 20)
+          .append("</td><td>")
+          .append(CAMPAIGNS[(int) (seed % CAMPAIGNS.length)])
+          .append("</td><td>")
+          .append(DEVICES[row % DEVICES.length])
+          .append("</td><td>")
+          .append(ENGINES[(int) (seed % ENGINES.length)])
+          .append("</td><td>")
+          .append(String.format(Locale.US, "%,d", impressions))
+          .append("</td><td>")
+          .append(clicks)
+          .append("</td><td>")
+          .append(String.format(Locale.US, "%,.2f", clicks * 0.37))
+          .append("</td><td>")
+          .append(String.format(Locale.US, "%.2f%%", clicks * 100.0 / impressions))
+          .append("</td></tr>");
+
+      if (html.length() >= CHUNK_SIZE) {
+        output.write(html.toString().getBytes(UTF_8));
+        html.setLength(0);
+      }
+    }
+
+    html.append("</tbody></table></body></html>");
+    output.write(html.toString().getBytes(UTF_8));
+  }
+
+  /** Limits the rate at which the response is written. */
+  private final class ThrottledOutputStream extends OutputStream {
+
+    private final OutputStream delegate;
+    private final long bytesPerSecond;
+    private final long startNanos = System.nanoTime();
+    private long bytesWritten = 0;
+
+    ThrottledOutputStream(OutputStream delegate, long bytesPerSecond) {
+      this.delegate = delegate;
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      delegate.write(bytes, offset, length);
+      bytesWritten += length;
+      bytesServed.addAndGet(length);
+
+      if (bytesPerSecond > 0) {
+        var expectedNanos = bytesWritten * 1_000_000_000L / bytesPerSecond;
+        var aheadNanos = expectedNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+          try {
+            Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+          } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", interruptedException);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.common.flogger.GoogleLogger;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs concurrent transfers against the fake services and reports the throughput.
+ *
+ * <p>The full {@link TransferRunner} pipeline runs unchanged, only the SA360 server, Cloud
+ * Storage and BigQuery are replaced by local fakes. Options are passed as {@code --name=value}:
+ * <ul>
+ *   <li>{@code transfers} - number of transfers to run, default 50.
+ *   <li>{@code concurrency} - number of parallel transfers, default {@link Constants#MAX_THREADS}.
+ *   <li>{@code rows} - rows per report, default 10000.
+ *   <li>{@code latencyMillis} - delay of the server before the report starts, default 0.
+ *   <li>{@code bytesPerSecond} - bandwidth limit per report, default 0 for unlimited.
+ *   <li>{@code fanOut} - number of transfers loading the same report, default 1.
+ *   <li>{@code bufferSizeKb} - size of the pooled I/O buffers, default
+ *       {@link Constants#DEFAULT_BUFFER_SIZE_KB}.
+ * </ul>
+ *
+ * <p>Exits with status 1 if any transfer fails.
+ */
+final class LoadTestDriver {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final String PROJECT_ID = "fake-project";
+  private static final String BUCKET_NAME = "fake-bucket";
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    var flags = parseFlags(args);
+    var transfers = Integer.parseInt(flags.getOrDefault("transfers", "50"));
+    var concurrency =
+        Integer.parseInt(flags.getOrDefault("concurrency", String.valueOf(Constants.MAX_THREADS)));
+    var rows = Integer.parseInt(flags.getOrDefault("rows", "10000"));
+    var latencyMillis = Long.parseLong(flags.getOrDefault("latencyMillis", "0"));
+    var bytesPerSecond = Long.parseLong(flags.getOrDefault("bytesPerSecond", "0"));
+    var fanOut = Integer.parseInt(flags.getOrDefault("fanOut", "1"));
+    var bufferSizeKb =
+        Integer.parseInt(
+            flags.getOrDefault("bufferSizeKb", String.valueOf(Constants.DEFAULT_BUFFER_SIZE_KB)));
+
+    var tempFolder = Files.createTempDirectory("dswq-loadtest");
+    var bufferPool =
+        new BufferPool(
+            Constants.DEFAULT_BUFFER_POOL_MB * 1024L * 1024L, bufferSizeKb * 1024);
+    var storage = new FakeStorage();
+    var bigQuery = new FakeBigQuery(storage);
+    var credential =
+        GoogleCredentials.create(new AccessToken("fake-token", new Date(Long.MAX_VALUE)));
+    var latenciesNanos = new long[transfers];
+    var failures = 0;
+    long elapsedNanos;
+
+    try (var server = FakeWebQueryServer.start();
+        var journal = RunJournal.create(tempFolder.resolve("journal.tsv").toFile())) {
+      var context =
+          TransferContext.builder()
+              .setCredential(credential)
+              .setBigQueryFactory(bigQuery::createService)
+              .setStorageServiceFactory(storage::createService)
+              .setTempFileManager(
+                  new TempFileManager(
+                      tempFolder.toFile(),
+                      Constants.DEFAULT_TEMP_DISK_QUOTA_MB * 1024L * 1024L,
+                      Constants.DEFAULT_IN_MEMORY_THRESHOLD_KB * 1024,
+                      bufferPool))
+              .setBufferPool(bufferPool)
+              .setStagedReportCache(new StagedReportCache())
+              .setRunJournal(journal)
+              .setSchemaRegistry(
+                  SchemaRegistry.open(
+                      tempFolder.resolve("schema-registry.tsv").toFile(),
+                      /*acceptIncompatibleChanges=*/ false))
+              .build();
+
+      var configs = new TransferConfig[transfers];
+      for (int index = 0; index < transfers; index++) {
+        configs[index] =
+            TransferConfig.builder()
+                .setWebQueryUrl(
+                    server.reportUrl(index / fanOut + 1, rows, latencyMillis, bytesPerSecond))
+                .setTempGcsBucketName(BUCKET_NAME)
+                .setBigQueryConfig(
+                    BigQueryConfig.builder()
+                        .setProjectId(PROJECT_ID)
+                        .setDatasetId("loadtest")
+                        .setTableId("report_" + (index + 1))
+                        .build())
+                .build();
+      }
+
+      logger.atInfo().log(
+          "running %s transfers of %s rows, concurrency: %s", transfers, rows, concurrency);
+      var executor = Executors.newFixedThreadPool(concurrency);
+      var startNanos = System.nanoTime();
+      for (int index = 0; index < transfers; index++) {
+        var transferIndex = index;
+        var runner = new TransferRunner(configs[index], context);
+        executor.execute(
+            () -> {
+              var transferStartNanos = System.nanoTime();
+              runner.run();
+              latenciesNanos[transferIndex] = System.nanoTime() - transferStartNanos;
+            });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      elapsedNanos = System.nanoTime() - startNanos;
+
+      for (var config : configs) {
+        if (!journal.getProgress(config.getTransferKey()).isDone()) {
+          failures++;
+        }
+      }
+
+      var elapsedSeconds = elapsedNanos / 1e9;
+      Arrays.sort(latenciesNanos);
+      System.out.printf(
+          "transfers: %d (failed: %d) in %.2f s%n"
+              + "throughput: %.2f transfers/s, %.0f rows/s, %.2f MB/s downloaded%n"
+              + "latency: p50 %d ms, p99 %d ms, max %d ms%n"
+              + "fetched: %d reports; staged: %d objects, %d bytes; load jobs: %d%n"
+              + "buffer pool: peak %d bytes of %d, %d waits%n"
+              + "io: %s%n"
+              + "peak RSS: %s%n",
+          transfers,
+          failures,
+          elapsedSeconds,
+          transfers / elapsedSeconds,
+          (double) transfers * rows / elapsedSeconds,
+          server.getBytesServed() / elapsedSeconds / (1024 * 1024),
+          percentileMillis(latenciesNanos, 50),
+          percentileMillis(latenciesNanos, 99),
+          percentileMillis(latenciesNanos, 100),
+          server.getRequestCount(),
+          storage.getObjectCount(),
+          storage.getBytesStored(),
+          bigQuery.getLoadJobs().size(),
+          bufferPool.getUsage().peakInUseBytes(),
+          bufferPool.getUsage().budgetBytes(),
+          bufferPool.getUsage().waitCount(),
+          IoStats.describe(),
+          readPeakRss());
+    } finally {
+      Files.deleteIfExists(tempFolder.resolve("journal.tsv"));
+      Files.deleteIfExists(tempFolder.resolve("schema-registry.tsv"));
+      Files.deleteIfExists(tempFolder);
+    }
+
+    System.exit((failures == 0) ? 0 : 1);
+  }
+
+  private static Map<String, String> parseFlags(String[] args) {
+    var flags = new HashMap<String, String>();
+    for (var arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("unexpected argument: " + arg);
+      }
+      var parts = arg.substring(2).split("=", 2);
+      flags.put(parts[0], (parts.length == 2) ? parts[1] : "true");
+    }
+    return flags;
+  }
+
+  /** Nearest-rank percentile of the sorted latencies. */
+  private static long percentileMillis(long[] sortedNanos, int percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    var rank = (int) Math.ceil(percentile / 100.0 * sortedNanos.length);
+    return TimeUnit.NANOSECONDS.toMillis(sortedNanos[Math.max(rank, 1) - 1]);
+  }
+
+  /** Returns the high water mark of the resident set size, available on Linux only. */
+  private static String readPeakRss() {
+    var status = Path.of("/proc/self/status");
+    if (!Files.isReadable(status)) {
+      return "unavailable";
+    }
+
+    try {
+      return Files.readAllLines(status, UTF_8).stream()
+          .filter(line -> line.startsWith("VmHWM:"))
+          .map(line -> line.substring("VmHWM:".length()).trim())
+          .findFirst()
+          .orElse("unavailable");
+    } catch (IOException ioException) {
+      logger.atWarning().withCause(ioException).log("error reading %s", status);
+      return "unavailable";
+    }
+  }
+}
@@ -15,27 +15,62 @@
 package dswebquerytobigquery;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static dswebquerytobigquery.Constants.REPORT_PULL_TIMESTAMP_COLUMN_NAME;
+import static dswebquerytobigquery.Constants.STAGING_TABLE_EXPIRATION_HOURS;
+import static dswebquerytobigquery.Constants.STAGING_TABLE_PREFIX;
+import static java.util.stream.Collectors.joining;
 
 import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.DatasetId;
+import com.google.cloud.bigquery.Field;
 import com.google.cloud.bigquery.FormatOptions;
 import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
 import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.LegacySQLTypeName;
 import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
 import com.google.cloud.storage.Blob;
-import java.io.IOException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.GoogleLogger;
+import java.net.HttpURLConnection;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /**
  * BigQuery client to load the CSV file from Cloud Storage into a table.
+ *
+ * <p>Reports are written into the table of the day, either replacing its content or merged into
+ * it through a staging table.
  */
 class BigQueryProcessor {
 
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final Pattern COLUMN_NAME_PATTERN =
+      Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,299}");
+
+  private static final String ROW_NUMBER_COLUMN_NAME = "dswq_row_number";
+
   private final BigQueryConfig outputTableInfo;
   private final BigQuery bigQueryService;
+  /** Fixed for the processor, so a merge started before midnight stays in the same table. */
+  private final String dateSuffix = getDateSuffix();
 
   public BigQueryProcessor(BigQueryConfig outputTableInfo,
                            BigQuery bigQueryService) {
@@ -46,39 +81,330 @@ class BigQueryProcessor {
   /**
    * Creates a Load job on BigQuery for the provided CSV file on Cloud Bucket.
    *
+   * @param columns  the columns of the CSV file, used as explicit table schema. Falls back to
+   *                 schema auto-detection when empty or not usable as BigQuery column names.
    * @param gcsBlobs the list of GCS blobs for CSV files to be uploaded into the given table.
    *                 First file should contain headers.
    * @return BigQuery load job id.
    */
-  public Job loadFileInTable(Blob... gcsBlobs) {
+  public Job loadFileInTable(ImmutableList<ColumnHeader> columns, Blob... gcsBlobs) {
+    return bigQueryService.create(
+        JobInfo.newBuilder(newLoadConfig(getOutputTableId(), columns, gcsBlobs)).build());
+  }
+
+  /**
+   * Merges the CSV files into the table of the day: rows with the same merge keys are updated, the
+   * others inserted, and duplicate keys within the files are loaded once, the latest pull winning.
+   *
+   * <p>The files are loaded into a staging table first, waiting for the load. The returned job
+   * runs the generated {@code MERGE} statement, after adding the new report columns to the table.
+   * The staging table is dropped with {@link #deleteStagingTable} once the job completed, and
+   * expires on its own in case the transfer dies before. Its name does not start with the table
+   * id, so wildcard queries over the daily tables never see it.
+   *
+   * <p>When the table of the day does not exist yet, it is created empty with the staging table's
+   * schema, so concurrent merges of the first reports of the day all merge into it.
+   *
+   * @param mergeKeys     the columns identifying a row within the table of the day.
+   * @param stagingSuffix distinguishes the staging tables of concurrent transfers.
+   * @param columns       the columns of the CSV file, see {@link #loadFileInTable}.
+   * @return the BigQuery job merging the files.
+   * @throws BigQueryException if the staging load failed or a merge key is not a report column.
+   * @throws InterruptedException if interrupted while waiting for the staging load.
+   */
+  public Job mergeFileInTable(
+      ImmutableList<String> mergeKeys,
+      String stagingSuffix,
+      ImmutableList<ColumnHeader> columns,
+      Blob... gcsBlobs) throws InterruptedException {
+    var stagingTableId = getStagingTableId(stagingSuffix);
+    createStagingTable(stagingTableId);
+    waitForCompletion(
+        bigQueryService.create(
+            JobInfo.newBuilder(newLoadConfig(stagingTableId, columns, gcsBlobs)).build()));
+
+    try {
+      var stagingFields = getFields(bigQueryService.getTable(stagingTableId));
+      if (stagingFields.isEmpty()) {
+        throw new BigQueryException(400, "no columns in staging table: " + stagingTableId);
+      }
+
+      var stagingColumnNames =
+          stagingFields.stream()
+              .map(field -> field.getName().toLowerCase())
+              .collect(toImmutableSet());
+      for (var mergeKey : mergeKeys) {
+        if (!stagingColumnNames.contains(mergeKey)) {
+          throw new BigQueryException(400, "merge key is not a report column: " + mergeKey);
+        }
+      }
+
+      var outputTable = getOrCreateOutputTable(stagingFields);
+      var script =
+          buildMergeScript(
+              getOutputTableId(), getFields(outputTable), stagingTableId, stagingFields, mergeKeys);
+      logger.atFine().log("merge script: %s", script);
+
+      return bigQueryService.create(
+          JobInfo.newBuilder(
+                  QueryJobConfiguration.newBuilder(script).setUseLegacySql(false).build())
+              .build());
+    } catch (RuntimeException exception) {
+      deleteStagingTable(stagingSuffix);
+      throw exception;
+    }
+  }
+
+  /** Creates the empty staging table, expiring after {@code STAGING_TABLE_EXPIRATION_HOURS}. */
+  private void createStagingTable(TableId stagingTableId) {
+    var expirationTime =
+        System.currentTimeMillis() + TimeUnit.HOURS.toMillis(STAGING_TABLE_EXPIRATION_HOURS);
+    try {
+      bigQueryService.create(
+          TableInfo.newBuilder(stagingTableId, StandardTableDefinition.of(Schema.of()))
+              .setExpirationTime(expirationTime)
+              .build());
+    } catch (BigQueryException bigQueryException) {
+      if (bigQueryException.getCode() != HttpURLConnection.HTTP_CONFLICT) {
+        throw bigQueryException;
+      }
+      // left behind by an interrupted attempt of the transfer, which set its expiration as well.
+    }
+  }
+
+  /**
+   * Returns the table of the day, creating it empty with the given fields if it does not exist.
+   */
+  private Table getOrCreateOutputTable(List<Field> fields) {
+    var outputTable = bigQueryService.getTable(getOutputTableId());
+    if (outputTable != null) {
+      return outputTable;
+    }
+
+    try {
+      outputTable =
+          bigQueryService.create(
+              TableInfo.of(getOutputTableId(), StandardTableDefinition.of(Schema.of(fields))));
+      logger.atInfo().log("created %s", getOutputTableId());
+      return outputTable;
+    } catch (BigQueryException bigQueryException) {
+      if (bigQueryException.getCode() != HttpURLConnection.HTTP_CONFLICT) {
+        throw bigQueryException;
+      }
+      // another transfer created the table meanwhile, its missing columns are added by the merge.
+      return bigQueryService.getTable(getOutputTableId());
+    }
+  }
+
+  /** Drops the staging table of {@link #mergeFileInTable}, if it exists. */
+  public void deleteStagingTable(String stagingSuffix) {
+    var stagingTableId = getStagingTableId(stagingSuffix);
+    if (bigQueryService.delete(stagingTableId)) {
+      logger.atInfo().log("deleted staging table: %s", stagingTableId);
+    }
+  }
+
+  private LoadJobConfiguration newLoadConfig(
+      TableId tableId, ImmutableList<ColumnHeader> columns, Blob... gcsBlobs) {
     var gcsFileNames =
       Stream.of(gcsBlobs)
         .map(blob -> String.format("gs://%s/%s", blob.getBucket(), blob.getName()))
         .collect(toImmutableList());
 
-    return bigQueryService.create(
-      JobInfo.newBuilder(
+    var loadConfigBuilder =
         LoadJobConfiguration.newBuilder(
-          TableId.of(
-            outputTableInfo.getProjectId(),
-            outputTableInfo.getDatasetId(),
-            outputTableInfo.getTableId() + "_" + getDateSuffix()),
+          tableId,
           gcsFileNames,
           FormatOptions.csv()
             .toBuilder()
             .setSkipLeadingRows(1)
             .setAllowQuotedNewLines(true)
             .build())
-          .setAutodetect(true)
-          .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
-          .build())
-        .build());
+          .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE);
+
+    var schema = toSchema(columns);
+    if (schema.isPresent()) {
+      loadConfigBuilder.setSchema(schema.get());
+    } else {
+      loadConfigBuilder.setAutodetect(true);
+    }
+
+    return loadConfigBuilder.build();
+  }
+
+  /**
+   * Generates the statements adding the new columns to the table and merging the staging table
+   * into it. Column names are BigQuery column names and safe to quote.
+   *
+   * <p>Rows match on the merge keys alone, as the table already holds a single day. The pull
+   * timestamp is written in the local time zone, so its date may differ within the table.
+   */
+  static String buildMergeScript(
+      TableId tableId,
+      List<Field> tableFields,
+      TableId stagingTableId,
+      List<Field> stagingFields,
+      ImmutableList<String> mergeKeys) {
+    var script = new StringBuilder();
+
+    var tableColumnNames =
+        tableFields.stream().map(field -> field.getName().toLowerCase()).collect(toImmutableSet());
+    for (var field : stagingFields) {
+      if (!tableColumnNames.contains(field.getName().toLowerCase())) {
+        script.append(
+            String.format(
+                "ALTER TABLE %s ADD COLUMN IF NOT EXISTS `%s` %s;%n",
+                quote(tableId), field.getName(), field.getType().getStandardType()));
+      }
+    }
+
+    var partitionColumns =
+        mergeKeys.stream().map(mergeKey -> String.format("`%s`", mergeKey)).collect(joining(", "));
+    var matchConditions =
+        mergeKeys.stream()
+            .map(
+                mergeKey ->
+                    String.format(
+                        "(target.`%1$s` = source.`%1$s`"
+                            + " OR (target.`%1$s` IS NULL AND source.`%1$s` IS NULL))",
+                        mergeKey))
+            .collect(joining("\n  AND "));
+    var updates =
+        stagingFields.stream()
+            .map(Field::getName)
+            .filter(name -> !mergeKeys.contains(name.toLowerCase()))
+            .map(name -> String.format("`%1$s` = source.`%1$s`", name))
+            .collect(joining(", "));
+    var insertColumns =
+        stagingFields.stream()
+            .map(field -> String.format("`%s`", field.getName()))
+            .collect(joining(", "));
+    var insertValues =
+        stagingFields.stream()
+            .map(field -> String.format("source.`%s`", field.getName()))
+            .collect(joining(", "));
+
+    script
+        .append(String.format("MERGE %s AS target%n", quote(tableId)))
+        .append(String.format("USING (%n"))
+        .append(String.format("  SELECT * EXCEPT (%s) FROM (%n", ROW_NUMBER_COLUMN_NAME))
+        .append(
+            String.format(
+                "    SELECT *, ROW_NUMBER() OVER (PARTITION BY %s ORDER BY `%s` DESC) AS %s%n",
+                partitionColumns, REPORT_PULL_TIMESTAMP_COLUMN_NAME, ROW_NUMBER_COLUMN_NAME))
+        .append(String.format("    FROM %s)%n", quote(stagingTableId)))
+        .append(String.format("  WHERE %s = 1) AS source%n", ROW_NUMBER_COLUMN_NAME))
+        .append(String.format("ON %s%n", matchConditions))
+        .append(String.format("WHEN MATCHED THEN UPDATE SET %s%n", updates))
+        .append(
+            String.format(
+                "WHEN NOT MATCHED THEN INSERT (%s) VALUES (%s);%n", insertColumns, insertValues));
+    return script.toString();
+  }
+
+  private static String quote(TableId tableId) {
+    return String.format(
+        "`%s.%s.%s`", tableId.getProject(), tableId.getDataset(), tableId.getTable());
+  }
+
+  private static List<Field> getFields(@Nullable Table table) {
+    if (table == null
+        || table.getDefinition() == null
+        || table.getDefinition().getSchema() == null) {
+      return ImmutableList.of();
+    }
+    return table.getDefinition().getSchema().getFields();
+  }
+
+  private TableId getOutputTableId() {
+    return TableId.of(
+        outputTableInfo.getProjectId(),
+        outputTableInfo.getDatasetId(),
+        outputTableInfo.getTableId() + "_" + dateSuffix);
+  }
+
+  private TableId getStagingTableId(String stagingSuffix) {
+    return TableId.of(
+        outputTableInfo.getProjectId(),
+        outputTableInfo.getDatasetId(),
+        String.format(
+            "%s%s_%s_%s",
+            STAGING_TABLE_PREFIX, outputTableInfo.getTableId(), dateSuffix, stagingSuffix));
+  }
+
+  /**
+   * Builds the table schema for the columns, if all names are unique valid column names.
+   */
+  static Optional<Schema> toSchema(ImmutableList<ColumnHeader> columns) {
+    var columnNames = new HashSet<String>();
+    for (var column : columns) {
+      if (!COLUMN_NAME_PATTERN.matcher(column.name()).matches()
+          || !columnNames.add(column.name().toLowerCase())) {
+        return Optional.empty();
+      }
+    }
+
+    if (columnNames.isEmpty()) {
+      return Optional.empty();
+    }
+
+    return Optional.of(
+        Schema.of(
+            columns.stream()
+                .map(
+                    column ->
+                        Field.newBuilder(column.name(), LegacySQLTypeName.valueOf(column.bqType()))
+                            .setMode(Field.Mode.NULLABLE)
+                            .build())
+                .collect(toImmutableList())));
+  }
+
+  /**
+   * Returns {@code true} if the dataset of the output table exists.
+   *
+   * @throws BigQueryException if the dataset is not accessible.
+   */
+  public boolean datasetExists() {
+    return bigQueryService.getDataset(
+            DatasetId.of(outputTableInfo.getProjectId(), outputTableInfo.getDatasetId()))
+        != null;
+  }
+
+  /**
+   * Returns the job with the given id, or {@code null} if it does not exist anymore.
+   */
+  @Nullable
+  public Job findJob(JobId jobId) {
+    return bigQueryService.getJob(jobId);
+  }
+
+  /**
+   * Waits for the job to complete.
+   *
+   * @throws BigQueryException if the job failed or was removed before completion.
+   */
+  public Job waitForCompletion(Job job) throws InterruptedException {
+    var completedJob = job.waitFor();
+
+    if (completedJob == null) {
+      throw new BigQueryException(404, "job not found: " + job.getJobId());
+    }
+
+    if (completedJob.getStatus().getError() != null) {
+      throw new BigQueryException(
+          400,
+          String.format(
+              "job %s failed: %s",
+              completedJob.getJobId().getJob(), completedJob.getStatus().getError().getMessage()));
+    }
+
+    return completedJob;
   }
 
   /**
    * Returns today's date at UTC in YYYYMMDD format to be used a suffix for table-name.
    */
-  private static String getDateSuffix() {
+  static String getDateSuffix() {
     return DateTimeFormatter.ofPattern("yyyyMMdd").format(LocalDate.now(ZoneOffset.UTC));
   }
 }
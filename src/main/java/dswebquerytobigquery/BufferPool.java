@@ -0,0 +1,266 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.flogger.GoogleLogger;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+
+/**
+ * Process-wide pool of direct byte buffers bounding the I/O memory of all transfers.
+ *
+ * <p>Buffers have a fixed size and are allocated lazily up to the memory budget, released buffers
+ * are recycled. {@link #acquire()} blocks while the budget is used up, so concurrent transfers
+ * slow down instead of running out of memory. Optional users, such as staging files held in
+ * memory, use {@link #tryAcquire()} and fall back to the disk instead.
+ *
+ * <p>Callers must not block on the pool while holding a buffer, or the transfers can deadlock.
+ * Callers needing several buffers take them together with {@link #acquire(int)}. Memory which
+ * the libraries allocate themselves, such as the upload chunk of the Cloud Storage client, is
+ * charged to the budget by reserving a buffer without taking it.
+ */
+final class BufferPool {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private final int bufferSize;
+  private final int maxBuffers;
+  private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition bufferReleased = lock.newCondition();
+  private int allocatedCount = 0;
+  private int inUseCount = 0;
+  private int peakInUseCount = 0;
+  private long acquireCount = 0;
+  private long waitCount = 0;
+  private long rejectedCount = 0;
+
+  /**
+   * Creates the pool.
+   *
+   * @param budgetBytes total size of the buffers, at least two buffers are always available.
+   * @param bufferSize  size of every buffer.
+   */
+  BufferPool(long budgetBytes, int bufferSize) {
+    checkArgument(bufferSize > 0, "buffer size should be positive: %s", bufferSize);
+    checkArgument(budgetBytes > 0, "memory budget should be positive: %s", budgetBytes);
+    this.bufferSize = bufferSize;
+    this.maxBuffers = (int) Math.max(2, Math.min(Integer.MAX_VALUE, budgetBytes / bufferSize));
+  }
+
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Takes a cleared buffer from the pool, waiting while the memory budget is used up.
+   *
+   * @throws InterruptedException if interrupted while waiting for a buffer.
+   */
+  ByteBuffer acquire() throws InterruptedException {
+    return acquire(1)[0];
+  }
+
+  /**
+   * Takes several cleared buffers from the pool at once, waiting until all of them are available.
+   *
+   * @param count number of buffers, at most two.
+   * @throws InterruptedException if interrupted while waiting for the buffers.
+   */
+  ByteBuffer[] acquire(int count) throws InterruptedException {
+    checkArgument(count > 0 && count <= 2, "can acquire one or two buffers: %s", count);
+
+    lock.lock();
+    try {
+      awaitAvailable(count);
+      var buffers = new ByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        buffers[i] = take();
+      }
+      return buffers;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes a cleared buffer and reserves the budget of another buffer allocated by the caller, both
+   * at once, waiting until they are available. Both are given back with {@link
+   * #releaseWithReservation(ByteBuffer)}.
+   *
+   * @throws InterruptedException if interrupted while waiting for the buffers.
+   */
+  ByteBuffer acquireWithReservation() throws InterruptedException {
+    lock.lock();
+    try {
+      awaitAvailable(2);
+      inUseCount++;
+      return take();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reserves the budget of a buffer allocated by the caller if the memory budget allows.
+   *
+   * @return {@code false} if the pool is exhausted.
+   */
+  boolean tryReserve() {
+    lock.lock();
+    try {
+      if (!canAcquire(1)) {
+        rejectedCount++;
+        return false;
+      }
+      inUseCount++;
+      peakInUseCount = Math.max(peakInUseCount, inUseCount);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes a cleared buffer from the pool if the memory budget allows.
+   *
+   * @return the buffer or {@code null} if the pool is exhausted.
+   */
+  @Nullable
+  ByteBuffer tryAcquire() {
+    lock.lock();
+    try {
+      if (!canAcquire(1)) {
+        rejectedCount++;
+        return null;
+      }
+      return take();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the buffer to the pool, it must not be used afterwards. */
+  void release(ByteBuffer buffer) {
+    checkArgument(buffer.capacity() == bufferSize, "buffer not from this pool");
+    buffer.clear();
+
+    lock.lock();
+    try {
+      checkState(inUseCount > 0, "more buffers released than acquired");
+      inUseCount--;
+      freeBuffers.push(buffer);
+      // waiters may need different numbers of buffers.
+      bufferReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the buffer and the reservation taken with {@link #acquireWithReservation()}. */
+  void releaseWithReservation(ByteBuffer buffer) {
+    releaseReservation();
+    release(buffer);
+  }
+
+  /** Gives back the budget of a buffer reserved with {@link #tryReserve()}. */
+  void releaseReservation() {
+    lock.lock();
+    try {
+      checkState(inUseCount > 0, "more buffers released than acquired");
+      inUseCount--;
+      bufferReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns a snapshot of the pool usage. */
+  Usage getUsage() {
+    lock.lock();
+    try {
+      return new AutoValue_BufferPool_Usage(
+          (long) maxBuffers * bufferSize,
+          (long) allocatedCount * bufferSize,
+          (long) inUseCount * bufferSize,
+          (long) peakInUseCount * bufferSize,
+          acquireCount,
+          waitCount,
+          rejectedCount);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void awaitAvailable(int count) throws InterruptedException {
+    if (canAcquire(count)) {
+      return;
+    }
+
+    waitCount++;
+    do {
+      logger.atInfo().atMostEvery(30, TimeUnit.SECONDS)
+          .log("buffer pool exhausted (%s buffers in use), waiting.", inUseCount);
+      bufferReleased.await();
+    } while (!canAcquire(count));
+  }
+
+  private boolean canAcquire(int count) {
+    return inUseCount + count <= maxBuffers;
+  }
+
+  private ByteBuffer take() {
+    var buffer = freeBuffers.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+      allocatedCount++;
+    }
+
+    inUseCount++;
+    acquireCount++;
+    peakInUseCount = Math.max(peakInUseCount, inUseCount);
+    return buffer;
+  }
+
+  /** Usage statistics of the pool. */
+  @AutoValue
+  abstract static class Usage {
+
+    abstract long budgetBytes();
+
+    abstract long allocatedBytes();
+
+    abstract long inUseBytes();
+
+    abstract long peakInUseBytes();
+
+    abstract long acquireCount();
+
+    /** Number of blocking acquires which had to wait for a buffer. */
+    abstract long waitCount();
+
+    /** Number of non-blocking acquires refused because the pool was exhausted. */
+    abstract long rejectedCount();
+  }
+}
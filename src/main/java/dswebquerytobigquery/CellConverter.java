@@ -0,0 +1,291 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import java.time.Month;
+import java.time.Year;
+import javax.annotation.Nullable;
+
+/**
+ * Converts the text of a WebQuery cell into the canonical CSV form of its column's type.
+ *
+ * <p>Converters read the cell straight from the parser's character buffer and append to a reused
+ * output buffer, so no intermediate Strings are created per cell.
+ */
+enum CellConverter {
+
+  /** Free text, quoted for CSV when required. */
+  TEXT {
+    @Override
+    boolean convert(CharSequence cell, StringBuilder output) {
+      var length = cell.length();
+      if (length == 0 || (length == 2 && cell.charAt(0) == '"' && cell.charAt(1) == '"')) {
+        return true;
+      }
+
+      var wrapInQuotes =
+          Character.isWhitespace(cell.charAt(0)) || Character.isWhitespace(cell.charAt(length - 1));
+      for (int index = 0; index < length && !wrapInQuotes; index++) {
+        var ch = cell.charAt(index);
+        wrapInQuotes = (ch == ',' || ch == '\n');
+      }
+
+      if (wrapInQuotes) {
+        output.append('"');
+      }
+      for (int index = 0; index < length; index++) {
+        var ch = cell.charAt(index);
+        // Escape doublequotes.
+        output.append(ch);
+        if (ch == '"') {
+          output.append('"');
+        }
+      }
+      if (wrapInQuotes) {
+        output.append('"');
+      }
+      return true;
+    }
+  },
+
+  /** Whole numbers with optional grouping separators, e.g. {@code 1,234}. */
+  INTEGER {
+    @Override
+    boolean convert(CharSequence cell, StringBuilder output) {
+      return convertNumber(cell, output, /*allowFraction=*/ false, /*allowPercent=*/ false);
+    }
+  },
+
+  /** Decimal numbers with optional grouping separators, e.g. {@code 1,234.56}. */
+  DECIMAL {
+    @Override
+    boolean convert(CharSequence cell, StringBuilder output) {
+      return convertNumber(cell, output, /*allowFraction=*/ true, /*allowPercent=*/ false);
+    }
+  },
+
+  /** Percentages such as {@code 12.5%}, written as the number of percentage points. */
+  PERCENT {
+    @Override
+    boolean convert(CharSequence cell, StringBuilder output) {
+      return convertNumber(cell, output, /*allowFraction=*/ true, /*allowPercent=*/ true);
+    }
+  },
+
+  /**
+   * Dates as {@code yyyy-MM-dd}. Accepts year first dates, {@code dd.MM.yyyy} and
+   * {@code MM/dd/yyyy}.
+   */
+  DATE {
+    @Override
+    boolean convert(CharSequence cell, StringBuilder output) {
+      var start = trimStart(cell);
+      var end = trimEnd(cell, start);
+      if (isNullMarker(cell, start, end)) {
+        return true;
+      }
+
+      var parts = new int[3];
+      var partDigits = new int[3];
+      var partIndex = 0;
+      var separator = '\0';
+
+      for (int index = start; index < end; index++) {
+        var ch = cell.charAt(index);
+        if (ch >= '0' && ch <= '9' && partDigits[partIndex] < 4) {
+          parts[partIndex] = parts[partIndex] * 10 + (ch - '0');
+          partDigits[partIndex]++;
+        } else if ((ch == '-' || ch == '/' || ch == '.')
+            && partIndex < 2
+            && partDigits[partIndex] > 0
+            && (separator == '\0' || separator == ch)) {
+          separator = ch;
+          partIndex++;
+        } else {
+          return false;
+        }
+      }
+
+      if (partIndex != 2 || partDigits[2] == 0) {
+        return false;
+      }
+
+      int year;
+      int month;
+      int day;
+      if (partDigits[0] == 4) {
+        year = parts[0];
+        month = parts[1];
+        day = parts[2];
+      } else if (partDigits[2] == 4 && separator == '.') {
+        day = parts[0];
+        month = parts[1];
+        year = parts[2];
+      } else if (partDigits[2] == 4) {
+        month = parts[0];
+        day = parts[1];
+        year = parts[2];
+      } else {
+        return false;
+      }
+
+      if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))) {
+        return false;
+      }
+
+      appendPadded(output, year, 4).append('-');
+      appendPadded(output, month, 2).append('-');
+      appendPadded(output, day, 2);
+      return true;
+    }
+  };
+
+  /**
+   * Appends the canonical value of the cell to the output buffer. Empty cells and SA360's
+   * {@code --} placeholder are converted to an empty value (NULL).
+   *
+   * @return {@code false} if the cell does not match the column type.
+   */
+  abstract boolean convert(CharSequence cell, StringBuilder output);
+
+  /** Returns {@code true} for the number types. */
+  boolean isNumeric() {
+    return this == INTEGER || this == DECIMAL || this == PERCENT;
+  }
+
+  /**
+   * Returns the converter for the WebQuery column type, {@code TEXT} for unknown types.
+   */
+  static CellConverter forWebQueryType(@Nullable String webQueryType) {
+    if (webQueryType == null) {
+      return TEXT;
+    }
+
+    switch (webQueryType) {
+      case "date":
+        return DATE;
+      case "integral":
+        return INTEGER;
+      case "decimal":
+        return DECIMAL;
+      case "percent":
+        return PERCENT;
+      default:
+        return TEXT;
+    }
+  }
+
+  private static boolean convertNumber(
+      CharSequence cell, StringBuilder output, boolean allowFraction, boolean allowPercent) {
+    var start = trimStart(cell);
+    var end = trimEnd(cell, start);
+    if (isNullMarker(cell, start, end)) {
+      return true;
+    }
+
+    var outputStart = output.length();
+    var negative = false;
+
+    // Accounting style negative numbers: (1,234)
+    if (end - start > 2 && cell.charAt(start) == '(' && cell.charAt(end - 1) == ')') {
+      negative = true;
+      start++;
+      end--;
+    }
+
+    if (start < end && (cell.charAt(start) == '-' || cell.charAt(start) == '+')) {
+      negative = negative || cell.charAt(start) == '-';
+      start++;
+    }
+
+    if (start < end && Character.getType(cell.charAt(start)) == Character.CURRENCY_SYMBOL) {
+      start++;
+    }
+
+    if (allowPercent && start < end && cell.charAt(end - 1) == '%') {
+      end--;
+    }
+
+    if (negative) {
+      output.append('-');
+    }
+
+    var digits = 0;
+    var seenPoint = false;
+    for (int index = start; index < end; index++) {
+      var ch = cell.charAt(index);
+      if (ch >= '0' && ch <= '9') {
+        output.append(ch);
+        digits++;
+      } else if (ch == ',' && !seenPoint && digits > 0) {
+        continue; // grouping separator
+      } else if (ch == '.' && allowFraction && !seenPoint) {
+        if (digits == 0) {
+          output.append('0');
+        }
+        output.append('.');
+        seenPoint = true;
+      } else {
+        output.setLength(outputStart);
+        return false;
+      }
+    }
+
+    if (digits == 0) {
+      output.setLength(outputStart);
+      return false;
+    }
+
+    if (output.charAt(output.length() - 1) == '.') {
+      output.setLength(output.length() - 1);
+    }
+    return true;
+  }
+
+  private static boolean isNullMarker(CharSequence cell, int start, int end) {
+    return start == end
+        || (end - start == 2 && cell.charAt(start) == '-' && cell.charAt(start + 1) == '-');
+  }
+
+  private static int trimStart(CharSequence cell) {
+    var start = 0;
+    while (start < cell.length() && isSpace(cell.charAt(start))) {
+      start++;
+    }
+    return start;
+  }
+
+  private static int trimEnd(CharSequence cell, int start) {
+    var end = cell.length();
+    while (end > start && isSpace(cell.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+
+  /** Formatted numbers often use non-breaking spaces. */
+  private static boolean isSpace(char ch) {
+    return Character.isWhitespace(ch) || ch == '\u00a0';
+  }
+
+  private static StringBuilder appendPadded(StringBuilder output, int value, int width) {
+    for (int limit = 10; width > 1; width--, limit *= 10) {
+      if (value < limit) {
+        output.append('0');
+      }
+    }
+    return output.append(value);
+  }
+}
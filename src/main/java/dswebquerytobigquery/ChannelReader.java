@@ -0,0 +1,103 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads UTF-8 text from a channel through a caller supplied byte buffer.
+ *
+ * <p>Bytes are decoded straight into the caller's char array, without the intermediate buffers
+ * of {@link java.io.InputStreamReader}. The decoder is reused by all readers of a thread.
+ * Malformed input is replaced, as the reports are expected to be well-formed.
+ */
+final class ChannelReader extends Reader {
+
+  private static final ThreadLocal<CharsetDecoder> DECODERS =
+      ThreadLocal.withInitial(
+          () ->
+              UTF_8.newDecoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final CharsetDecoder decoder = DECODERS.get().reset();
+  private boolean endOfInput = false;
+  private boolean flushed = false;
+
+  /**
+   * Creates the reader, the buffer stays owned by the caller and is not released on close.
+   */
+  ChannelReader(ReadableByteChannel channel, ByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+    buffer.clear().flip();
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    var output = CharBuffer.wrap(chars, offset, length);
+    while (true) {
+      if (!flushed) {
+        decoder.decode(buffer, output, endOfInput);
+        if (endOfInput && !buffer.hasRemaining()) {
+          flushed = decoder.flush(output).isUnderflow();
+        }
+      }
+
+      if (output.position() > offset) {
+        return output.position() - offset;
+      }
+      if (flushed) {
+        return -1;
+      }
+      fill();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** Reads more bytes, keeping the incomplete character at the end of the buffer. */
+  private void fill() throws IOException {
+    buffer.compact();
+    int count;
+    do {
+      count = channel.read(buffer);
+    } while (count == 0 && buffer.hasRemaining());
+    buffer.flip();
+
+    if (count == -1) {
+      endOfInput = true;
+    } else {
+      IoStats.recordRead(count);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes UTF-8 text to a channel through a caller supplied byte buffer.
+ *
+ * <p>Characters are encoded straight into the buffer, which is written to the channel only when
+ * full, so the channel sees few large writes of the buffer's size. The encoder is reused by all
+ * writers of a thread.
+ */
+final class ChannelWriter extends Writer {
+
+  private static final ThreadLocal<CharsetEncoder> ENCODERS =
+      ThreadLocal.withInitial(
+          () ->
+              UTF_8.newEncoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final CharsetEncoder encoder = ENCODERS.get().reset();
+  /** High surrogate ending the previous write, encoded with the next character. */
+  private char pendingHighSurrogate = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates the writer, the buffer stays owned by the caller and is not released on close.
+   */
+  ChannelWriter(WritableByteChannel channel, ByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+    buffer.clear();
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    encode(CharBuffer.wrap(chars, offset, length), /*endOfInput=*/ false);
+  }
+
+  @Override
+  public void write(String text, int offset, int length) throws IOException {
+    encode(CharBuffer.wrap(text, offset, offset + length), /*endOfInput=*/ false);
+  }
+
+  @Override
+  public Writer append(CharSequence text) throws IOException {
+    encode(CharBuffer.wrap(text), /*endOfInput=*/ false);
+    return this;
+  }
+
+  @Override
+  public Writer append(CharSequence text, int start, int end) throws IOException {
+    encode(CharBuffer.wrap(text, start, end), /*endOfInput=*/ false);
+    return this;
+  }
+
+  /** Writes ASCII characters, such as the CSV delimiters, straight into the buffer. */
+  @Override
+  public void write(int ch) throws IOException {
+    if (ch >= 0x80 || pendingHighSurrogate != 0) {
+      write(new char[] {(char) ch}, 0, 1);
+      return;
+    }
+
+    checkState(!closed, "writer closed");
+    if (!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put((byte) ch);
+  }
+
+  /** Writes the buffered bytes to the channel. */
+  @Override
+  public void flush() throws IOException {
+    checkState(!closed, "writer closed");
+    drain();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    try {
+      encode(CharBuffer.allocate(0), /*endOfInput=*/ true);
+      while (encoder.flush(buffer).isOverflow()) {
+        drain();
+      }
+      drain();
+    } finally {
+      closed = true;
+      channel.close();
+    }
+  }
+
+  private void encode(CharBuffer input, boolean endOfInput) throws IOException {
+    checkState(!closed, "writer closed");
+
+    if (pendingHighSurrogate != 0) {
+      if (!input.hasRemaining() && !endOfInput) {
+        return;
+      }
+      var pair = CharBuffer.allocate(2).put(pendingHighSurrogate);
+      if (input.hasRemaining()) {
+        pair.put(input.get());
+      }
+      pair.flip();
+      pendingHighSurrogate = 0;
+      encodeFully(pair, endOfInput);
+    }
+
+    encodeFully(input, endOfInput);
+    if (input.hasRemaining()) {
+      // a surrogate pair split across two writes.
+      pendingHighSurrogate = input.get();
+    }
+  }
+
+  private void encodeFully(CharBuffer input, boolean endOfInput) throws IOException {
+    CoderResult result;
+    while ((result = encoder.encode(input, buffer, endOfInput)).isOverflow()) {
+      drain();
+    }
+    if (result.isError()) {
+      result.throwException();
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded cache of the encoded form of repeated cell values of a single column.
+ *
+ * <p>Dimension columns such as campaign, device or engine repeat a few thousand values across
+ * millions of rows. The dictionary maps the raw cell text to its encoded form (e.g. the escaped
+ * CSV value), and looks values up straight from the parser's character buffer, so a hit needs no
+ * allocation. The encoding is supplied by the caller, hence the same dictionary works for any
+ * output format.
+ *
+ * <p>The entries are kept in a two-way set associative table; on a miss the entry that was not
+ * used recently is evicted. Columns with mostly unique values, e.g. keywords, are detected after
+ * a sample of lookups and the dictionary disables itself.
+ *
+ * <p>Not thread-safe, each parser uses its own dictionaries.
+ */
+final class ColumnDictionary {
+
+  /** Number of lookups after which the hit ratio is checked. */
+  private static final int SAMPLE_LOOKUPS = 10_000;
+
+  /** Minimum share of hits in the sample to keep the dictionary enabled. */
+  private static final double MIN_HIT_RATIO = 0.5;
+
+  private final int maxValueLength;
+  private final int slotMask;
+  private final String[] rawValues;
+  private final String[] encodedValues;
+  private final int[] hashes;
+  private final boolean[] recentlyUsed;
+
+  private boolean enabled = true;
+  private boolean sampled = false;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * Creates a dictionary.
+   *
+   * @param capacity       maximum number of entries, rounded up to a power of two.
+   * @param maxValueLength values longer than this are never cached.
+   */
+  ColumnDictionary(int capacity, int maxValueLength) {
+    checkArgument(capacity >= 2, "capacity too small: %s", capacity);
+    var slots = Integer.highestOneBit(capacity - 1) << 1;
+    this.slotMask = slots - 1;
+    this.maxValueLength = maxValueLength;
+    this.rawValues = new String[slots];
+    this.encodedValues = new String[slots];
+    this.hashes = new int[slots];
+    this.recentlyUsed = new boolean[slots];
+  }
+
+  /**
+   * Returns the cached encoded form of the value, or {@code null} if it is not cached.
+   */
+  @Nullable
+  String lookup(CharSequence rawValue) {
+    if (!enabled || rawValue.length() > maxValueLength) {
+      return null;
+    }
+
+    String encodedValue = null;
+    var hash = hash(rawValue);
+    var slot = hash & slotMask;
+    for (int way = 0; way < 2; way++, slot ^= 1) {
+      if (hashes[slot] == hash
+          && rawValues[slot] != null
+          && rawValues[slot].contentEquals(rawValue)) {
+        recentlyUsed[slot] = true;
+        encodedValue = encodedValues[slot];
+        break;
+      }
+    }
+
+    if (encodedValue == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    if (!sampled && hits + misses >= SAMPLE_LOOKUPS) {
+      sampled = true;
+      if (hits < (hits + misses) * MIN_HIT_RATIO) {
+        disable();
+      }
+    }
+    return encodedValue;
+  }
+
+  /**
+   * Caches the encoded form of the value, evicting the least recently used entry of its slot.
+   *
+   * @return the encoded value.
+   */
+  String put(CharSequence rawValue, String encodedValue) {
+    if (!enabled || rawValue.length() > maxValueLength) {
+      return encodedValue;
+    }
+
+    var hash = hash(rawValue);
+    var slot = hash & slotMask;
+    var pairSlot = slot ^ 1;
+    if (rawValues[slot] != null
+        && (rawValues[pairSlot] == null || (recentlyUsed[slot] && !recentlyUsed[pairSlot]))) {
+      slot = pairSlot;
+    }
+
+    rawValues[slot] = rawValue.toString();
+    encodedValues[slot] = encodedValue;
+    hashes[slot] = hash;
+    recentlyUsed[slot] = true;
+    recentlyUsed[slot ^ 1] = false;
+    return encodedValue;
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  long getHits() {
+    return hits;
+  }
+
+  long getMisses() {
+    return misses;
+  }
+
+  private void disable() {
+    enabled = false;
+    Arrays.fill(rawValues, null);
+    Arrays.fill(encodedValues, null);
+  }
+
+  /**
+   * {@link String#hashCode()} of the value with its high bits spread, computed without creating
+   * the String.
+   */
+  private static int hash(CharSequence value) {
+    var hash = 0;
+    for (int index = 0; index < value.length(); index++) {
+      hash = 31 * hash + value.charAt(index);
+    }
+    return hash ^ (hash >>> 16);
+  }
+}
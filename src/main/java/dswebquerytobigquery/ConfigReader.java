@@ -14,37 +14,278 @@
 
 package dswebquerytobigquery;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.io.Files;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import org.apache.commons.csv.CSVFormat;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
 
-/** Service to read CSV Configurations for loading multiple WebQuery to BQ jobs. */
+/**
+ * Service to read Configurations for loading multiple WebQuery to BQ jobs.
+ *
+ * <p>Supports CSV, JSON (an array of objects) and YAML (a list of mappings) files, chosen by the
+ * file extension. All formats use the CSV header names as keys.
+ */
 class ConfigReader {
 
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final Splitter LIST_SPLITTER = Splitter.on(';').trimResults().omitEmptyStrings();
+
+  /**
+   * Streams the configuration from the file, parsing and validating rows as they are consumed.
+   *
+   * <p>Invalid rows and rows which repeat an earlier transfer are logged and skipped. The returned
+   * stream must be closed to release the file.
+   *
+   * @return Stream of WebQuery to BigQuery Transfer configuration items
+   */
+  public static Stream<TransferConfig> readConfig(File configFile) throws IOException {
+    return readConfig(configFile, Clock.systemDefaultZone());
+  }
+
+  /**
+   * Streams the configuration from the file, resolving time of day deadlines against the date of
+   * the clock when the reading starts, i.e. the run date.
+   */
+  static Stream<TransferConfig> readConfig(File configFile, Clock clock) throws IOException {
+    var runClock = Clock.fixed(clock.instant(), clock.getZone());
+    var seenTransferKeys = new HashSet<String>();
+    var rejectedCount = new AtomicLong();
+
+    return readRecords(configFile)
+        .map(
+            record -> {
+              try {
+                return ConfigValidator.validate(buildConfig(record, runClock));
+              } catch (RuntimeException invalidConfigException) {
+                rejectedCount.incrementAndGet();
+                logger.atSevere().log(
+                    "skipping invalid config at %s: %s",
+                    record.location(), invalidConfigException.getMessage());
+                return null;
+              }
+            })
+        .filter(config -> config != null)
+        .filter(
+            config -> {
+              if (seenTransferKeys.add(config.getTransferKey())) {
+                return true;
+              }
+              logger.atWarning().log("skipping duplicate config: %s", config);
+              return false;
+            })
+        .onClose(
+            () ->
+                logger.atInfo().log(
+                    "read %s configurations, rejected %s",
+                    seenTransferKeys.size(), rejectedCount.get()));
+  }
+
   /**
-   * Retrieve configuration from CSV File.
+   * Builds TransferConfig object from a configuration row.
+   */
+  private static TransferConfig buildConfig(ConfigRecord record, Clock runClock) {
+    return TransferConfig.builder()
+        .setBigQueryConfig(
+            BigQueryConfig.builder()
+                .setProjectId(record.getRequired("projectId"))
+                .setDatasetId(record.getRequired("datasetId"))
+                .setTableId(record.getRequired("tableId"))
+                .build())
+        .setWebQueryUrl(record.getRequired("webQueryUrl"))
+        .setTempGcsBucketName(record.getRequired("gcsBucketName"))
+        .setReportFilter(ReportFilter.parse(record.get("columns"), record.get("rowFilter")))
+        .setPriority(
+            (record.get("priority") == null)
+                ? TransferConfig.Priority.NORMAL
+                : TransferConfig.Priority.parse(record.get("priority")))
+        .setDeadline(
+            (record.get("deadline") == null)
+                ? null
+                : parseDeadline(record.get("deadline"), runClock))
+        .setLoadMode(
+            (record.get("loadMode") == null)
+                ? TransferConfig.LoadMode.TRUNCATE
+                : TransferConfig.LoadMode.parse(record.get("loadMode")))
+        .setMergeKeys(
+            (record.get("mergeKeys") == null)
+                ? ImmutableList.of()
+                : LIST_SPLITTER.splitToStream(record.get("mergeKeys").toLowerCase())
+                    .collect(toImmutableList()))
+        .build();
+  }
+
+  /**
+   * Parses a deadline given as ISO date-time with offset, e.g. {@code 2026-10-20T07:00:00Z}, or as
+   * local time of day, e.g. {@code 07:00}, meaning that time on the run date in the clock's time
+   * zone. A time of day already passed when the run starts stays on the run date, so the late run
+   * is reported as SLA miss.
    *
-   * @return Array of WebQuery to BigQuery Transfer configuration items
+   * @throws IllegalArgumentException if the value is neither.
    */
-  public static TransferConfig[] loadConfig(File configFile) throws IOException {
-    return CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(new FileReader(configFile))
-        .getRecords()
+  static Instant parseDeadline(String value, Clock runClock) {
+    try {
+      return OffsetDateTime.parse(value).toInstant();
+    } catch (DateTimeParseException notDateTimeException) {
+      // try as time of day.
+    }
+
+    try {
+      return LocalDate.now(runClock)
+          .atTime(LocalTime.parse(value))
+          .atZone(runClock.getZone())
+          .toInstant();
+    } catch (DateTimeParseException dateTimeParseException) {
+      throw new IllegalArgumentException("invalid deadline: " + value);
+    }
+  }
+
+  private static Stream<ConfigRecord> readRecords(File configFile) throws IOException {
+    var extension = Files.getFileExtension(configFile.getName()).toLowerCase();
+    var reader = Files.newReader(configFile, UTF_8);
+
+    try {
+      switch (extension) {
+        case "json":
+          return readJsonRecords(reader).onClose(() -> closeQuietly(reader));
+        case "yaml":
+        case "yml":
+          return readYamlRecords(reader).onClose(() -> closeQuietly(reader));
+        default:
+          return readCsvRecords(reader).onClose(() -> closeQuietly(reader));
+      }
+    } catch (IOException | RuntimeException exception) {
+      closeQuietly(reader);
+      throw exception;
+    }
+  }
+
+  private static Stream<ConfigRecord> readCsvRecords(Reader reader) throws IOException {
+    return CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader)
         .stream()
         .map(
-            // Build TransferConfig objects from CSV rows
             record ->
-                TransferConfig.builder()
-                    .setBigQueryConfig(
-                        BigQueryConfig.builder()
-                            .setProjectId(record.get("projectId"))
-                            .setDatasetId(record.get("datasetId"))
-                            .setTableId(record.get("tableId"))
-                            .build())
-                    .setWebQueryUrl(record.get("webQueryUrl"))
-                    .setTempGcsBucketName(record.get("gcsBucketName"))
-                    .build()
-        )
-        .toArray(TransferConfig[]::new);
+                new ConfigRecord(
+                    "line " + record.getRecordNumber(),
+                    name -> record.isSet(name) ? record.get(name) : null));
+  }
+
+  /** Streams the objects of a top-level JSON array one at a time. */
+  private static Stream<ConfigRecord> readJsonRecords(Reader reader) throws IOException {
+    var jsonReader = new JsonReader(reader);
+    jsonReader.beginArray();
+
+    return Streams.stream(
+        new AbstractIterator<ConfigRecord>() {
+          private int index = 0;
+
+          @Override
+          protected ConfigRecord computeNext() {
+            try {
+              if (!jsonReader.hasNext()) {
+                jsonReader.endArray();
+                return endOfData();
+              }
+
+              var fields = new HashMap<String, String>();
+              jsonReader.beginObject();
+              while (jsonReader.hasNext()) {
+                var name = jsonReader.nextName();
+                var token = jsonReader.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                  fields.put(name, jsonReader.nextString());
+                } else {
+                  jsonReader.skipValue();
+                }
+              }
+              jsonReader.endObject();
+
+              return new ConfigRecord("element " + index++, fields::get);
+            } catch (IOException ioException) {
+              throw new UncheckedIOException(ioException);
+            }
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked") // SafeConstructor only creates Lists and Maps.
+  private static Stream<ConfigRecord> readYamlRecords(Reader reader) {
+    var elements = (List<Map<String, Object>>) new Yaml(new SafeConstructor()).load(reader);
+    if (elements == null) {
+      return Stream.empty();
+    }
+
+    return Streams.mapWithIndex(
+        elements.stream(),
+        (element, index) ->
+            new ConfigRecord(
+                "element " + index,
+                name -> (element.get(name) == null) ? null : String.valueOf(element.get(name))));
+  }
+
+  private static void closeQuietly(Reader reader) {
+    try {
+      reader.close();
+    } catch (IOException ioException) {
+      logger.atWarning().withCause(ioException).log("error closing config file");
+    }
+  }
+
+  /** A single configuration row independent of the file format. */
+  private static class ConfigRecord {
+
+    private final String location;
+    private final Function<String, String> fieldReader;
+
+    ConfigRecord(String location, Function<String, String> fieldReader) {
+      this.location = location;
+      this.fieldReader = fieldReader;
+    }
+
+    String location() {
+      return location;
+    }
+
+    @Nullable
+    String get(String name) {
+      var value = fieldReader.apply(name);
+      return (value == null || value.isBlank()) ? null : value.trim();
+    }
+
+    String getRequired(String name) {
+      var value = get(name);
+      if (value == null) {
+        throw new IllegalArgumentException("missing " + name);
+      }
+      return value;
+    }
   }
 }
@@ -0,0 +1,105 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.regex.Pattern;
+
+/** Validates the configuration values before any transfer is started. */
+final class ConfigValidator {
+
+  /** Cloud Storage bucket naming rules, names with dots can be up to 222 characters. */
+  private static final Pattern BUCKET_NAME_PATTERN =
+      Pattern.compile("[a-z0-9][a-z0-9._-]{1,220}[a-z0-9]");
+
+  /** Cloud project ids, optionally with a domain prefix. */
+  private static final Pattern PROJECT_ID_PATTERN =
+      Pattern.compile("([a-z0-9.-]+:)?[a-z][a-z0-9-]{4,28}[a-z0-9]");
+
+  private static final Pattern DATASET_ID_PATTERN = Pattern.compile("[A-Za-z0-9_]{1,1024}");
+
+  /** Column names as written by the CSV conversion, also safe to use in generated SQL. */
+  private static final Pattern COLUMN_NAME_PATTERN = Pattern.compile("[a-z_][a-z0-9_]{0,299}");
+
+  /** Leaves room for the date suffix added to the table name. */
+  private static final Pattern TABLE_ID_PATTERN = Pattern.compile("[\\w-]{1,1000}");
+
+  /**
+   * Checks the values of the config and returns it.
+   *
+   * @throws IllegalArgumentException describing the first invalid value.
+   */
+  public static TransferConfig validate(TransferConfig config) {
+    validateWebQueryUrl(config.getWebQueryUrl());
+
+    checkArgument(
+        BUCKET_NAME_PATTERN.matcher(config.getTempGcsBucketName()).matches(),
+        "invalid gcsBucketName: %s", config.getTempGcsBucketName());
+
+    var bigQueryConfig = config.getBigQueryConfig();
+    checkArgument(
+        PROJECT_ID_PATTERN.matcher(bigQueryConfig.getProjectId()).matches(),
+        "invalid projectId: %s", bigQueryConfig.getProjectId());
+    checkArgument(
+        DATASET_ID_PATTERN.matcher(bigQueryConfig.getDatasetId()).matches(),
+        "invalid datasetId: %s", bigQueryConfig.getDatasetId());
+    checkArgument(
+        TABLE_ID_PATTERN.matcher(bigQueryConfig.getTableId()).matches(),
+        "invalid tableId: %s", bigQueryConfig.getTableId());
+
+    validateMergeKeys(config);
+
+    return config;
+  }
+
+  private static void validateMergeKeys(TransferConfig config) {
+    var mergeKeys = config.getMergeKeys();
+    if (config.getLoadMode() != TransferConfig.LoadMode.MERGE) {
+      checkArgument(mergeKeys.isEmpty(), "mergeKeys require loadMode merge");
+      return;
+    }
+
+    checkArgument(!mergeKeys.isEmpty(), "loadMode merge requires mergeKeys");
+    for (var mergeKey : mergeKeys) {
+      checkArgument(
+          COLUMN_NAME_PATTERN.matcher(mergeKey).matches(), "invalid merge key: %s", mergeKey);
+      checkArgument(
+          !config.getReportFilter().hasColumnSelection()
+              || config.getReportFilter().getColumns().contains(mergeKey),
+          "merge key %s is not among the selected columns", mergeKey);
+    }
+  }
+
+  private static void validateWebQueryUrl(String webQueryUrl) {
+    URL url;
+    try {
+      url = new URL(webQueryUrl);
+    } catch (MalformedURLException malformedUrlException) {
+      throw new IllegalArgumentException("invalid webQueryUrl: " + webQueryUrl);
+    }
+
+    checkArgument(
+        url.getProtocol().equals("https") || url.getProtocol().equals("http"),
+        "webQueryUrl should be http(s): %s", webQueryUrl);
+    checkArgument(
+        WebQuery.extractReportId(webQueryUrl) != null,
+        "webQueryUrl without report id (rid): %s", webQueryUrl);
+  }
+
+  private ConfigValidator() {}
+}
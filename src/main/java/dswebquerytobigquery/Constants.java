@@ -24,7 +24,21 @@ final class Constants {
   public static final String CSV_FILE_PREFIX = "dswq_";
 
   public static final int MAX_THREADS = 10;
+  public static final long DEFAULT_TEMP_DISK_QUOTA_MB = 10 * 1024;
+  public static final int DEFAULT_IN_MEMORY_THRESHOLD_KB = 4 * 1024;
+  public static final long DEFAULT_BUFFER_POOL_MB = 256;
+  /** Size of the pooled I/O buffers, also the GCS upload chunk size (a multiple of 256 KiB). */
+  public static final int DEFAULT_BUFFER_SIZE_KB = 1024;
+  public static final String DEFAULT_JOURNAL_FILE_NAME = "run-journal.tsv";
+  public static final String DEFAULT_SCHEMA_REGISTRY_FILE_NAME = "schema-registry.tsv";
+  public static final long JOURNAL_SYNC_INTERVAL_MILLIS = 1000;
+  public static final long DEFAULT_LEASE_TIMEOUT_SECONDS = 300;
+  public static final int COLUMN_DICTIONARY_CAPACITY = 4096;
+  public static final int COLUMN_DICTIONARY_MAX_VALUE_LENGTH = 256;
   public static final String REPORT_PULL_TIMESTAMP_COLUMN_NAME = "reporting_date";
+  /** Keeps the staging tables of merges out of the wildcard queries over the daily tables. */
+  public static final String STAGING_TABLE_PREFIX = "dswq_staging_";
+  public static final long STAGING_TABLE_EXPIRATION_HOURS = 24;
 
   public static final ImmutableSet<String> REQUIRED_SCOPES =
       ImmutableSet.of(
@@ -17,13 +17,13 @@ package dswebquerytobigquery;
 import static dswebquerytobigquery.WqToBqDataTypeMapper.translateWebQueryTypeToBigQueryType;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.flogger.GoogleLogger;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import org.apache.commons.csv.CSVFormat;
@@ -36,50 +36,102 @@ import org.xml.sax.helpers.DefaultHandler;
 /** SAX parser for WebQuery HTML.
  *
  * Reads the WebQuery HTML and transforms into a CSV File.
+ * Cells are converted to the canonical form of their column's type, cells which do not match the
+ * type are written as empty values and counted as rejected. Converted values of text and date
+ * columns are cached in a {@link ColumnDictionary} per column.
+ *
+ * <p>The {@link ReportFilter} is applied while parsing: cells of dropped columns are skipped
+ * without being accumulated or converted, and so are the remaining cells of a row once it failed
+ * a predicate. Rows are only buffered when a row filter is set.
+ *
+ * <p>A {@link HeaderListener} sees the columns as soon as the table header is parsed, before any
+ * row is read, and can abort the parsing of reports which cannot be loaded.
  */
 public class Html2CsvParseHandler extends DefaultHandler {
 
   private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
 
-  private final File outputFile;
+  private final Writer outputWriter;
+  private final ReportFilter reportFilter;
+  private final HeaderListener headerListener;
   private final String processingDateString =
       new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
   private CSVPrinter csvPrinter;
   private ImmutableList.Builder<String> columnTypeInfo;
   private ImmutableList.Builder<String> columnNameInfo;
-  private StringBuilder textAccumulator;
-  private ImmutableList.Builder<String> rowAccumulator;
+  private ImmutableList.Builder<CellConverter> columnConverterInfo;
+  private ImmutableList<String> columnNames;
+  private ImmutableList<CellConverter> columnConverters;
+  private ColumnDictionary[] columnDictionaries;
+  private long[] rejectedCellCounts;
+  /** Whether each report column is written to the CSV. */
+  private boolean[] outputColumns;
+  /** Whether each report column is converted, because it is written or filtered on. */
+  private boolean[] parsedColumns;
+  private ReportFilter.RowPredicate[][] columnPredicates;
+  /** Converted cells of the current row, kept until the row is known to match the filter. */
+  private StringBuilder[] rowCells;
+  private boolean rowMatches = true;
+  private int filteredRowCounter = 0;
+  private final StringBuilder textAccumulator = new StringBuilder();
+  private final StringBuilder convertedCell = new StringBuilder();
+  private boolean cellStarted = false;
+  private int cellIndex = 0;
   private boolean bodyElementStarted = false;
   private int bodyRowCounter = 0;
 
   /**
-   * Initializes the Parser with Output CSV File location.
+   * Initializes the Parser with Output CSV stream.
    *
-   * @param outputFile name and location of the output CSV File to store parsed output.
+   * @param outputWriter the writer to store parsed CSV output, closed at the end of the document.
+   * @param reportFilter the columns and rows to keep.
+   * @param headerListener called with the columns once the header is parsed.
    */
-  private Html2CsvParseHandler(File outputFile) {
-    this.outputFile = outputFile;
+  private Html2CsvParseHandler(
+      Writer outputWriter, ReportFilter reportFilter, HeaderListener headerListener) {
+    this.outputWriter = outputWriter;
+    this.reportFilter = reportFilter;
+    this.headerListener = headerListener;
+  }
+
+  /** Receives the columns of the report before its rows are parsed. */
+  public interface HeaderListener {
+
+    /**
+     * Validates the columns written to the CSV.
+     *
+     * @throws SAXException to stop parsing the report.
+     */
+    void onHeader(ImmutableList<ColumnHeader> columns) throws SAXException;
   }
 
   /**
-   * Factory Meethod to build the parser for a given output file.
+   * Factory Method to build the parser which reports the columns before parsing the rows.
    *
-   * @param outputFile name and location of the output CSV File to store parsed output.
-   * @return the Parser which will store the output to the given File.
+   * @param outputWriter   the writer to store parsed CSV output, closed at the end of the document.
+   * @param reportFilter   the columns and rows to keep.
+   * @param headerListener called with the columns once the header is parsed.
+   * @return the Parser which will store the output to the given writer.
    */
-  public static Html2CsvParseHandler forFile(File outputFile) {
-    return new Html2CsvParseHandler(outputFile);
+  public static Html2CsvParseHandler forWriter(
+      Writer outputWriter, ReportFilter reportFilter, HeaderListener headerListener) {
+    return new Html2CsvParseHandler(outputWriter, reportFilter, headerListener);
   }
 
-  private ImmutableList<ColumnHeader> getColumnHeaders() {
+  /**
+   * Returns the columns of the report with their BigQuery types, once the header is parsed.
+   */
+  public ImmutableList<ColumnHeader> getColumnHeaders() {
 
-    if (bodyElementStarted) {
+    if (columnNames != null) {
       List<String> columnTypes = columnTypeInfo.build();
-      List<String> columnNames = columnNameInfo.build();
 
       ImmutableList.Builder<ColumnHeader> columnHeaderBuilder = ImmutableList.builder();
 
       for (int index = 0; index < columnNames.size(); index++) {
+        if (outputColumns != null && index < outputColumns.length && !outputColumns[index]) {
+          continue;
+        }
         columnHeaderBuilder
             .add(ColumnHeader.create(columnNames.get(index), columnTypes.get(index)));
       }
@@ -89,22 +141,177 @@ public class Html2CsvParseHandler extends DefaultHandler {
     return ImmutableList.of();
   }
 
+  /**
+   * Creates dictionaries for the text and date columns, which repeat a limited set of values.
+   * Numeric columns have mostly distinct values and are converted for every cell.
+   */
+  private static ColumnDictionary[] createColumnDictionaries(List<CellConverter> converters) {
+    var dictionaries = new ColumnDictionary[converters.size()];
+    for (int index = 0; index < converters.size(); index++) {
+      var converter = converters.get(index);
+      if (converter == CellConverter.TEXT || converter == CellConverter.DATE) {
+        dictionaries[index] =
+            new ColumnDictionary(
+                Constants.COLUMN_DICTIONARY_CAPACITY, Constants.COLUMN_DICTIONARY_MAX_VALUE_LENGTH);
+      }
+    }
+    return dictionaries;
+  }
+
+  /**
+   * Resolves the filter's columns against the report header.
+   *
+   * @throws SAXException if the filter refers to columns missing from the report.
+   */
+  private void applyReportFilter() throws SAXException {
+    // the last column is the report timestamp.
+    var reportColumnCount = columnNames.size() - 1;
+    outputColumns = new boolean[reportColumnCount];
+    parsedColumns = new boolean[reportColumnCount];
+    columnPredicates = new ReportFilter.RowPredicate[reportColumnCount][];
+    var unknownColumns = new ArrayList<String>();
+
+    if (reportFilter.hasColumnSelection()) {
+      for (var column : reportFilter.getColumns()) {
+        var index = columnNames.subList(0, reportColumnCount).indexOf(column);
+        if (index < 0) {
+          unknownColumns.add(column);
+        } else {
+          outputColumns[index] = true;
+        }
+      }
+    } else {
+      Arrays.fill(outputColumns, true);
+    }
+
+    for (var predicate : reportFilter.getRowPredicates()) {
+      var index = columnNames.subList(0, reportColumnCount).indexOf(predicate.column());
+      if (index < 0) {
+        unknownColumns.add(predicate.column());
+        continue;
+      }
+      if (converterAt(index).isNumeric() && predicate.numericValue() == null) {
+        throw new SAXException("row filter on numeric column expects a number: " + predicate);
+      }
+
+      var predicates = columnPredicates[index];
+      columnPredicates[index] =
+          (predicates == null)
+              ? new ReportFilter.RowPredicate[] {predicate}
+              : ObjectArrays.concat(predicates, predicate);
+    }
+
+    if (!unknownColumns.isEmpty()) {
+      throw new SAXException(
+          String.format("unknown columns %s in report filter, report columns: %s",
+              unknownColumns, columnNames));
+    }
+
+    for (int index = 0; index < reportColumnCount; index++) {
+      parsedColumns[index] = outputColumns[index] || columnPredicates[index] != null;
+    }
+
+    if (!reportFilter.getRowPredicates().isEmpty()) {
+      rowCells = new StringBuilder[reportColumnCount];
+      for (int index = 0; index < reportColumnCount; index++) {
+        if (outputColumns[index]) {
+          rowCells[index] = new StringBuilder();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the cell is written or filtered on. Cells beyond the header are
+   * only kept when no filter is set.
+   */
+  private boolean isParsedColumn(int index) {
+    return (index < parsedColumns.length) ? parsedColumns[index] : isUnfiltered();
+  }
+
+  private boolean isOutputColumn(int index) {
+    return (index < outputColumns.length) ? outputColumns[index] : isUnfiltered();
+  }
+
+  private boolean isUnfiltered() {
+    return !reportFilter.hasColumnSelection() && rowCells == null;
+  }
+
+  private CellConverter converterAt(int index) {
+    return (index < columnConverters.size()) ? columnConverters.get(index) : CellConverter.TEXT;
+  }
+
   private void createCsvWriter(String[] headers) throws SAXException {
     try {
       csvPrinter =
-          new CSVPrinter(
-              new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8),
-              CSVFormat.DEFAULT.withHeader(headers));
+          new CSVPrinter(outputWriter, CSVFormat.DEFAULT.withHeader(headers));
     } catch (IOException ioexception) {
       throw new SAXException("error creating outputfile", ioexception);
     }
   }
 
-  private void writeRowToCsv(ImmutableList<String> rowElements) throws SAXException {
+  /**
+   * Converts the accumulated cell text by its column type, tests it against the row filter and
+   * writes it to the current row.
+   */
+  private void writeCellToCsv() throws SAXException {
+    var converter = converterAt(cellIndex);
+    var dictionary = (cellIndex < columnDictionaries.length) ? columnDictionaries[cellIndex] : null;
+
+    CharSequence cellValue = (dictionary == null) ? null : dictionary.lookup(textAccumulator);
+    if (cellValue == null) {
+      convertedCell.setLength(0);
+      if (!converter.convert(textAccumulator, convertedCell)) {
+        rejectedCellCounts[cellIndex]++;
+        convertedCell.setLength(0);
+      } else if (dictionary != null && dictionary.isEnabled()) {
+        dictionary.put(textAccumulator, convertedCell.toString());
+      }
+      cellValue = convertedCell;
+    }
+
+    var predicates = (cellIndex < columnPredicates.length) ? columnPredicates[cellIndex] : null;
+    if (predicates != null) {
+      // text is compared as shown in the report, before CSV escaping.
+      var testValue = (converter == CellConverter.TEXT) ? textAccumulator : cellValue;
+      for (var predicate : predicates) {
+        if (!predicate.test(testValue, converter.isNumeric())) {
+          rowMatches = false;
+          return;
+        }
+      }
+    }
+
+    if (!isOutputColumn(cellIndex)) {
+      return;
+    }
+
+    if (rowCells != null) {
+      rowCells[cellIndex].setLength(0);
+      rowCells[cellIndex].append(cellValue);
+      return;
+    }
+
+    try {
+      csvPrinter.print(cellValue);
+    } catch (IOException ioException) {
+      throw new SAXException("error writing row " + bodyRowCounter, ioException);
+    }
+  }
+
+  private void endCsvRow() throws SAXException {
     try {
-      csvPrinter.printRecord(rowElements);
+      if (rowCells != null) {
+        for (var rowCell : rowCells) {
+          if (rowCell != null) {
+            csvPrinter.print(rowCell);
+          }
+        }
+      }
+      csvPrinter.print(processingDateString); // Add partition timestamp to each row
+      csvPrinter.println();
     } catch (IOException ioException) {
-      throw new SAXException("error writing row " + rowElements, ioException);
+      throw new SAXException("error writing row " + bodyRowCounter, ioException);
     }
   }
 
@@ -112,10 +319,16 @@ public class Html2CsvParseHandler extends DefaultHandler {
   public void startDocument() {
     columnTypeInfo = ImmutableList.builder();
     columnNameInfo = ImmutableList.builder();
+    columnConverterInfo = ImmutableList.builder();
   }
 
   @Override
   public void endDocument() throws SAXException {
+    if (csvPrinter == null) {
+      // e.g. an error or sign-in page instead of the report.
+      throw new SAXException("no report table header found in the WebQuery response");
+    }
+
     try {
       csvPrinter.flush();
       csvPrinter.close();
@@ -123,7 +336,24 @@ public class Html2CsvParseHandler extends DefaultHandler {
       throw new SAXException("error closing file", ioexception);
     }
     logger.atFine().log("headers: %s", getColumnHeaders());
-    logger.atInfo().log("parsed rows: %s", bodyRowCounter);
+    logger.atInfo().log("parsed rows: %s, filtered out: %s", bodyRowCounter, filteredRowCounter);
+
+    for (int index = 0; index < rejectedCellCounts.length; index++) {
+      if (rejectedCellCounts[index] > 0) {
+        logger.atWarning().log(
+            "rejected %s cells of column %s", rejectedCellCounts[index], columnNames.get(index));
+      }
+    }
+
+    for (int index = 0; index < columnDictionaries.length; index++) {
+      var dictionary = columnDictionaries[index];
+      if (dictionary != null) {
+        logger.atFine().log(
+            "column %s dictionary hits: %s, misses: %s, enabled: %s",
+            columnNames.get(index), dictionary.getHits(), dictionary.getMisses(),
+            dictionary.isEnabled());
+      }
+    }
   }
 
   @Override
@@ -136,10 +366,17 @@ public class Html2CsvParseHandler extends DefaultHandler {
           (colClassValue == null)
               ? WqToBqDataTypeMapper.DEFAULT_TYPE
               : translateWebQueryTypeToBigQueryType(colClassValue));
+      columnConverterInfo.add(CellConverter.forWebQueryType(colClassValue));
     }
 
-    if (qName.equals("th") || qName.equals("td")) {
-      textAccumulator = new StringBuilder();
+    if (qName.equals("th")) {
+      textAccumulator.setLength(0);
+      cellStarted = true;
+    }
+
+    if (qName.equals("td")) {
+      textAccumulator.setLength(0);
+      cellStarted = rowMatches && isParsedColumn(cellIndex);
     }
 
     if (qName.equals("tbody")) {
@@ -148,7 +385,15 @@ public class Html2CsvParseHandler extends DefaultHandler {
 
     // New Datarow begins
     if (bodyElementStarted && qName.equals("tr")) {
-      rowAccumulator = ImmutableList.builder();
+      cellIndex = 0;
+      rowMatches = true;
+      if (rowCells != null) {
+        for (var rowCell : rowCells) {
+          if (rowCell != null) {
+            rowCell.setLength(0);
+          }
+        }
+      }
     }
   }
 
@@ -162,34 +407,47 @@ public class Html2CsvParseHandler extends DefaultHandler {
     }
 
     if (qName.equals("th")) {
+      cellStarted = false;
       columnNameInfo.add(formatHeader(textAccumulator.toString()));
     }
 
     // Start the CSV Writer
     if (qName.equals("thead")) {
-      createCsvWriter(
+      columnNames =
           columnNameInfo
               .add(Constants.REPORT_PULL_TIMESTAMP_COLUMN_NAME) // add partition column
-              .build()
-              .toArray(new String[0]));
+              .build();
+      columnConverters = columnConverterInfo.build();
+      columnDictionaries = createColumnDictionaries(columnConverters);
+      rejectedCellCounts = new long[columnNames.size()];
+      applyReportFilter();
+
+      var columnHeaders = getColumnHeaders();
+      headerListener.onHeader(columnHeaders);
+      createCsvWriter(columnHeaders.stream().map(ColumnHeader::name).toArray(String[]::new));
     }
 
     if (qName.equals("td")) {
-      rowAccumulator.add(sanitizeForCsv(textAccumulator.toString()));
+      if (cellStarted) {
+        cellStarted = false;
+        writeCellToCsv();
+      }
+      cellIndex++;
     }
 
     if (bodyElementStarted && qName.equals("tr")) {
       bodyRowCounter++;
-      writeRowToCsv(
-          rowAccumulator
-              .add(processingDateString) // Add partition timestamp to each row
-              .build());
+      if (rowMatches) {
+        endCsvRow();
+      } else {
+        filteredRowCounter++;
+      }
     }
   }
 
   @Override
   public void characters(char[] ch, int start, int length) {
-    if (textAccumulator != null) {
+    if (cellStarted) {
       textAccumulator.append(ch, start, length);
     }
   }
@@ -218,30 +476,4 @@ public class Html2CsvParseHandler extends DefaultHandler {
         .replaceAll("_{2,}", "_") // Replace multiple underscrores with one
         .toLowerCase();
   }
-
-  private static String sanitizeForCsv(String cellData) {
-    if (cellData == null || cellData.equals("") || cellData.equals("\"\"")) {
-      return "";
-    }
-
-    var resultBuilder = new StringBuilder(cellData);
-    // Look for doublequotes, escape as necessary.
-    var lastIndex = 0;
-    while (resultBuilder.indexOf("\"", lastIndex) >= 0) {
-      var quoteIndex = resultBuilder.indexOf("\"", lastIndex);
-      resultBuilder.replace(quoteIndex, quoteIndex + 1, "\"\"");
-      lastIndex = quoteIndex + 2;
-    }
-
-    var firstChar = cellData.charAt(0);
-    var lastChar = cellData.charAt(cellData.length() - 1);
-
-    if (cellData.contains(",") || // Check for commas
-      cellData.contains("\n") ||  // Check for line breaks
-      Character.isWhitespace(firstChar) || // Check for leading whitespace.
-      Character.isWhitespace(lastChar)) { // Check for trailing whitespace
-      resultBuilder.insert(0, "\"").append("\""); // Wrap in doublequotes.
-    }
-    return resultBuilder.toString();
-  }
 }
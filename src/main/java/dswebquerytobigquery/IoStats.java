@@ -0,0 +1,51 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters of the channel reads and writes of the report I/O.
+ *
+ * <p>Every count is one read or write call on a channel. File channels make one system call per
+ * call, while the reads of the SA360 response go through the stream of the HTTP connection and
+ * return at most 8 KiB each, so they count the calls of the parser rather than system calls.
+ */
+final class IoStats {
+
+  private static final LongAdder readCount = new LongAdder();
+  private static final LongAdder bytesRead = new LongAdder();
+  private static final LongAdder writeCount = new LongAdder();
+  private static final LongAdder bytesWritten = new LongAdder();
+
+  private IoStats() {}
+
+  static void recordRead(int bytes) {
+    readCount.increment();
+    bytesRead.add(bytes);
+  }
+
+  static void recordWrite(int bytes) {
+    writeCount.increment();
+    bytesWritten.add(bytes);
+  }
+
+  /** Returns a one line summary of the counters for the logs. */
+  static String describe() {
+    return String.format(
+        "reads=%s (%s bytes), writes=%s (%s bytes)",
+        readCount.sum(), bytesRead.sum(), writeCount.sum(), bytesWritten.sum());
+  }
+}
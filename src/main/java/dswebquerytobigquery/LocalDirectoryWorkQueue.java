@@ -0,0 +1,282 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WorkQueue} kept as marker files in a directory shared by all workers, e.g. an NFS mount.
+ *
+ * <p>For each transfer key the directory holds:
+ * <ul>
+ *   <li>{@code <key>.lease} - created exclusively by the claiming worker, which refreshes its
+ *       modification time as heartbeat. A lease older than the timeout belongs to a dead worker.
+ *   <li>{@code <key>.done} or {@code <key>.failed} - written when the transfer finished.
+ * </ul>
+ *
+ * <p>The transfer keys carry no date, so the directory serves the run of a single day: the first
+ * worker records the date in {@code RUN_DATE}, and workers of another day refuse the directory
+ * rather than finding all their transfers finished.
+ *
+ * <p>An expired lease is moved aside atomically before it is claimed again, so only one of the
+ * competing workers takes it over. The moved file is compared with the expired lease: a worker
+ * which moved the fresh lease of a faster competitor puts it back and gives up. A worker which
+ * was merely stalled past the timeout notices the lost lease at its next heartbeat; its transfer
+ * may then run twice, which is harmless as the loads are idempotent.
+ */
+final class LocalDirectoryWorkQueue implements WorkQueue {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final String LEASE_SUFFIX = ".lease";
+  private static final String DONE_SUFFIX = ".done";
+  private static final String FAILED_SUFFIX = ".failed";
+  private static final String RUN_DATE_FILE_NAME = "RUN_DATE";
+
+  private final Path queueDir;
+  private final String workerId;
+  private final long leaseTimeoutMillis;
+  private final Set<FileLease> heldLeases = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService heartbeatExecutor;
+
+  /**
+   * Opens the queue, creating the directory if needed.
+   *
+   * @param workerId           identifies this worker process in the lease files.
+   * @param leaseTimeoutMillis age after which the lease of a worker without heartbeat expires.
+   * @throws IOException if the directory holds the run of another day.
+   */
+  LocalDirectoryWorkQueue(File queueDir, String workerId, long leaseTimeoutMillis)
+      throws IOException {
+    checkArgument(leaseTimeoutMillis >= 3, "lease timeout too short: %s", leaseTimeoutMillis);
+    this.queueDir = Files.createDirectories(queueDir.toPath());
+    this.workerId = workerId;
+    this.leaseTimeoutMillis = leaseTimeoutMillis;
+    checkRunDate();
+    this.heartbeatExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lease-heartbeat").setDaemon(true).build());
+    heartbeatExecutor.scheduleWithFixedDelay(
+        this::heartbeat,
+        getHeartbeatIntervalMillis(),
+        getHeartbeatIntervalMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Leases are refreshed three times per timeout, tolerating a missed heartbeat. */
+  long getHeartbeatIntervalMillis() {
+    return leaseTimeoutMillis / 3;
+  }
+
+  @Override
+  public Optional<Lease> tryClaim(String transferKey) throws IOException {
+    if (isFinished(transferKey)) {
+      return Optional.empty();
+    }
+
+    var leaseFile = queueDir.resolve(transferKey + LEASE_SUFFIX);
+    if (Files.exists(leaseFile) && !breakExpiredLease(leaseFile)) {
+      return Optional.empty();
+    }
+
+    try {
+      Files.write(leaseFile, workerId.getBytes(UTF_8), StandardOpenOption.CREATE_NEW);
+    } catch (FileAlreadyExistsException fileAlreadyExistsException) {
+      // another worker was faster.
+      return Optional.empty();
+    }
+
+    // The transfer may have finished between the check and the claim.
+    if (isFinished(transferKey)) {
+      Files.deleteIfExists(leaseFile);
+      return Optional.empty();
+    }
+
+    var lease = new FileLease(transferKey, leaseFile);
+    heldLeases.add(lease);
+    return Optional.of(lease);
+  }
+
+  @Override
+  public boolean isFinished(String transferKey) {
+    return Files.exists(queueDir.resolve(transferKey + DONE_SUFFIX))
+        || Files.exists(queueDir.resolve(transferKey + FAILED_SUFFIX));
+  }
+
+  @Override
+  public void close() throws IOException {
+    heartbeatExecutor.shutdownNow();
+
+    for (var lease : heldLeases) {
+      lease.release();
+    }
+  }
+
+  /** Records today as the run date of the directory, or verifies the date of the first worker. */
+  private void checkRunDate() throws IOException {
+    var today = BigQueryProcessor.getDateSuffix();
+    var runDateFile = queueDir.resolve(RUN_DATE_FILE_NAME);
+    if (!Files.exists(runDateFile)) {
+      var tempFile = queueDir.resolve(RUN_DATE_FILE_NAME + ".tmp-" + workerId);
+      Files.write(tempFile, today.getBytes(UTF_8));
+      try {
+        // unlike a move, a link never replaces the date written by another worker.
+        Files.createLink(runDateFile, tempFile);
+      } catch (FileAlreadyExistsException fileAlreadyExistsException) {
+        // another worker was faster.
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    }
+
+    var runDate = new String(Files.readAllBytes(runDateFile), UTF_8).trim();
+    if (!runDate.equals(today)) {
+      throw new IOException(
+          String.format(
+              "queue directory %s holds the run of %s, not of today (%s), use a new directory",
+              queueDir, runDate, today));
+    }
+  }
+
+  /**
+   * Removes the lease file if it expired.
+   *
+   * @return true if the lease no longer exists.
+   */
+  private boolean breakExpiredLease(Path leaseFile) throws IOException {
+    FileTime lastHeartbeat;
+    try {
+      lastHeartbeat = Files.getLastModifiedTime(leaseFile);
+    } catch (NoSuchFileException noSuchFileException) {
+      return true;
+    }
+
+    if (System.currentTimeMillis() - lastHeartbeat.toMillis() < leaseTimeoutMillis) {
+      return false;
+    }
+    var owner = readOwner(leaseFile);
+
+    var expiredFile = leaseFile.resolveSibling(leaseFile.getFileName() + ".expired-" + workerId);
+    try {
+      Files.move(leaseFile, expiredFile, StandardCopyOption.ATOMIC_MOVE);
+    } catch (NoSuchFileException noSuchFileException) {
+      // another worker broke the lease first.
+      return true;
+    }
+
+    // Another worker may have broken the lease and claimed it anew since it was checked.
+    if (!lastHeartbeat.equals(Files.getLastModifiedTime(expiredFile))
+        || !owner.equals(readOwner(expiredFile))) {
+      restoreLease(expiredFile, leaseFile);
+      return false;
+    }
+
+    logger.atWarning().log(
+        "lease %s of %s expired at %s, taking over", leaseFile.getFileName(), owner, lastHeartbeat);
+    Files.deleteIfExists(expiredFile);
+    return true;
+  }
+
+  /** Puts back a live lease moved aside by mistake, unless the lease was claimed meanwhile. */
+  private static void restoreLease(Path movedFile, Path leaseFile) throws IOException {
+    try {
+      // unlike a move, a link never replaces an existing lease.
+      Files.createLink(leaseFile, movedFile);
+    } catch (FileAlreadyExistsException fileAlreadyExistsException) {
+      logger.atWarning().log(
+          "lease %s of %s was claimed again while restoring it",
+          leaseFile.getFileName(), readOwner(movedFile));
+    } finally {
+      Files.deleteIfExists(movedFile);
+    }
+  }
+
+  private void heartbeat() {
+    var now = FileTime.fromMillis(System.currentTimeMillis());
+
+    for (var lease : heldLeases) {
+      try {
+        if (!workerId.equals(readOwner(lease.leaseFile))) {
+          logger.atWarning().log("lost lease %s to another worker", lease.leaseFile.getFileName());
+          heldLeases.remove(lease);
+          continue;
+        }
+        Files.setLastModifiedTime(lease.leaseFile, now);
+      } catch (IOException ioException) {
+        logger.atWarning().withCause(ioException).log(
+            "error refreshing lease %s", lease.leaseFile.getFileName());
+      }
+    }
+  }
+
+  private static String readOwner(Path leaseFile) {
+    try {
+      return new String(Files.readAllBytes(leaseFile), UTF_8);
+    } catch (IOException ioException) {
+      return "unknown";
+    }
+  }
+
+  /** Lease held by this worker. */
+  private final class FileLease implements Lease {
+
+    private final String transferKey;
+    private final Path leaseFile;
+
+    private FileLease(String transferKey, Path leaseFile) {
+      this.transferKey = transferKey;
+      this.leaseFile = leaseFile;
+    }
+
+    @Override
+    public String getTransferKey() {
+      return transferKey;
+    }
+
+    @Override
+    public void complete(boolean succeeded) throws IOException {
+      Files.write(
+          queueDir.resolve(transferKey + (succeeded ? DONE_SUFFIX : FAILED_SUFFIX)),
+          workerId.getBytes(UTF_8));
+      release();
+    }
+
+    @Override
+    public void release() throws IOException {
+      if (heldLeases.remove(this) && workerId.equals(readOwner(leaseFile))) {
+        Files.deleteIfExists(leaseFile);
+      }
+    }
+  }
+}
@@ -22,45 +22,104 @@ import com.google.api.services.storage.StorageScopes;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.GoogleLogger;
-import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.stream.Stream;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.stream.Collectors;
 
 class Main {
 
   private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
 
-  public static void main(String[] args) throws IOException {
+  public static void main(String[] args) throws IOException, InterruptedException {
 
-    checkArgument(args.length == 2, "Provide Configuration CSV and location for csv reports");
+    var options = RunOptions.parse(args);
     // Load Config File
-    logger.atInfo().log("config file: %s", args[0]);
-    var configFile = new File(args[0]);
+    logger.atInfo().log("config file: %s", options.getConfigFile());
 
-    var tmpFolder = new File(args[1]);
-    checkArgument(tmpFolder.isDirectory(), "provided URI is not a folder: %s", args[1]);
-    TransferConfig[] transferConfigs = ConfigReader.loadConfig(configFile);
+    var tmpFolder = options.getTempFolder();
+    checkArgument(tmpFolder.isDirectory(), "provided URI is not a folder: %s", tmpFolder);
+    var bufferPool =
+        new BufferPool(options.getBufferPoolBytes(), options.getBufferSizeBytes());
+    var tempFileManager =
+        new TempFileManager(
+            tmpFolder,
+            options.getTempDiskQuotaBytes(),
+            options.getInMemoryThresholdBytes(),
+            bufferPool);
+    logger.atInfo().log("removed %s orphan files", tempFileManager.sweepOrphans());
 
-    logger.atFine().log("Loaded %s configurations", transferConfigs.length);
-
-    var executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(MAX_THREADS);
+    var schemaRegistry =
+        SchemaRegistry.open(options.getSchemaRegistryFile(), options.isAcceptSchemaChanges());
 
     var serviceAccountCredentials = GoogleCredentials.getApplicationDefault();
     serviceAccountCredentials.refresh();
-    // Run all configs
-    Stream.of(transferConfigs)
-      .map(config ->
-        new TransferRunner(
-          config,
-          serviceAccountCredentials,
-          BigQueryFactory.getDefaultInstance(serviceAccountCredentials),
-          StorageServiceFactory.getDefaultInstance(serviceAccountCredentials),
-          tmpFolder))
-      .forEach(executor::execute);
-
-    executor.shutdown();
-    logger.atInfo().log("Waiting for workers to complete.");
+
+    var slaTracker = new SlaTracker();
+    try (var runJournal =
+            options.isResume()
+                ? RunJournal.resume(options.getJournalFile())
+                : RunJournal.create(options.getJournalFile());
+        var transferConfigs = ConfigReader.readConfig(options.getConfigFile())) {
+      var context =
+          TransferContext.builder()
+              .setCredential(serviceAccountCredentials)
+              .setBigQueryFactory(BigQueryFactory.getDefaultInstance(serviceAccountCredentials))
+              .setStorageServiceFactory(
+                  StorageServiceFactory.getDefaultInstance(serviceAccountCredentials))
+              .setTempFileManager(tempFileManager)
+              .setBufferPool(bufferPool)
+              .setStagedReportCache(new StagedReportCache())
+              .setRunJournal(runJournal)
+              .setSchemaRegistry(schemaRegistry)
+              .build();
+
+      if (options.getQueueDir() != null) {
+        runDistributed(
+            options, context, slaTracker, transferConfigs.collect(Collectors.toList()));
+      } else {
+        // Run all configs, transfers start while the config file is still being read.
+        new PriorityTransferScheduler(
+                context, MAX_THREADS, options.getReservedThreads(), slaTracker)
+            .run(transferConfigs);
+      }
+    }
+
+    slaTracker.logSummary();
+
+    logger.atInfo().log("buffer pool usage: %s", bufferPool.getUsage());
+    logger.atInfo().log("report io: %s", IoStats.describe());
+  }
+
+  /**
+   * Runs as one of several worker processes sharing the transfers through the queue directory.
+   */
+  private static void runDistributed(
+      RunOptions options,
+      TransferContext context,
+      SlaTracker slaTracker,
+      List<TransferConfig> transferConfigs)
+      throws IOException, InterruptedException {
+    var workerId =
+        String.format(
+            "%s-%s-%s",
+            InetAddress.getLocalHost().getHostName(),
+            ProcessHandle.current().pid(),
+            options.getWorkerIndex());
+    logger.atInfo().log("worker %s using queue: %s", workerId, options.getQueueDir());
+
+    try (var workQueue =
+        new LocalDirectoryWorkQueue(
+            options.getQueueDir(), workerId, options.getLeaseTimeoutMillis())) {
+      new WorkQueueScheduler(
+              workQueue,
+              context,
+              options.getWorkerIndex(),
+              options.getWorkerCount(),
+              workQueue.getHeartbeatIntervalMillis(),
+              options.getReservedThreads(),
+              slaTracker)
+          .run(transferConfigs, MAX_THREADS);
+    }
   }
 }
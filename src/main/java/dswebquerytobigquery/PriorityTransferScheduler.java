@@ -0,0 +1,205 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Runs the transfers of a run by priority, with threads reserved for the urgent ones.
+ *
+ * <p>Queued transfers are started most urgent priority first, and within a priority by earliest
+ * deadline, then in config order. A transfer queued later jumps ahead of all queued transfers of
+ * lower priority; running transfers are never interrupted. Reserved threads only run transfers
+ * of their priority or a more urgent one, so long running backfills cannot hold up all threads.
+ */
+final class PriorityTransferScheduler {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final Comparator<QueuedTransfer> QUEUE_ORDER =
+      Comparator.comparing(
+              (QueuedTransfer queued) -> queued.config.getDeadline(),
+              Comparator.nullsLast(Comparator.<Instant>naturalOrder()))
+          .thenComparingLong(queued -> queued.sequence);
+
+  private final TransferContext context;
+  private final TransferConfig.Priority[] threadPriorities;
+  private final SlaTracker slaTracker;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition transferQueued = lock.newCondition();
+  private final Map<TransferConfig.Priority, PriorityQueue<QueuedTransfer>> queues =
+      new EnumMap<>(TransferConfig.Priority.class);
+  private long queuedCount = 0;
+  private boolean allQueued = false;
+
+  /**
+   * Creates the scheduler.
+   *
+   * @param concurrency     number of transfers to run in parallel.
+   * @param reservedThreads number of threads reserved for each priority.
+   * @param slaTracker      records the outcome of every transfer.
+   */
+  PriorityTransferScheduler(
+      TransferContext context,
+      int concurrency,
+      ImmutableMap<TransferConfig.Priority, Integer> reservedThreads,
+      SlaTracker slaTracker) {
+    this.context = context;
+    this.threadPriorities = assignThreadPriorities(concurrency, reservedThreads);
+    this.slaTracker = slaTracker;
+    for (var priority : TransferConfig.Priority.values()) {
+      queues.put(priority, new PriorityQueue<>(QUEUE_ORDER));
+    }
+  }
+
+  /**
+   * Returns the least urgent priority each thread may run, the reserved threads first.
+   *
+   * @throws IllegalArgumentException if no thread is left for the transfers of low priority.
+   */
+  static TransferConfig.Priority[] assignThreadPriorities(
+      int concurrency, ImmutableMap<TransferConfig.Priority, Integer> reservedThreads) {
+    var reservedCount = reservedThreads.values().stream().mapToInt(Integer::intValue).sum();
+    checkArgument(
+        reservedCount < concurrency,
+        "%s reserved threads leave no thread for low priority transfers, out of %s",
+        reservedCount,
+        concurrency);
+
+    var threadPriorities = new TransferConfig.Priority[concurrency];
+    var thread = 0;
+    for (var priority : TransferConfig.Priority.values()) {
+      for (int count = 0; count < reservedThreads.getOrDefault(priority, 0); count++) {
+        threadPriorities[thread++] = priority;
+      }
+    }
+    while (thread < concurrency) {
+      threadPriorities[thread++] = TransferConfig.Priority.LOW;
+    }
+    return threadPriorities;
+  }
+
+  /**
+   * Runs all transfers, starting them while the configs are still being read.
+   *
+   * <p>Returns once all workers are done, also when reading the configs fails: the transfers
+   * already queued are completed before the error is rethrown, so the resources they use stay open.
+   */
+  void run(Stream<TransferConfig> configs) throws InterruptedException {
+    var executor =
+        Executors.newFixedThreadPool(
+            threadPriorities.length,
+            new ThreadFactoryBuilder().setNameFormat("transfer-%d").build());
+    for (var threadPriority : threadPriorities) {
+      executor.execute(() -> runQueuedTransfers(threadPriority));
+    }
+
+    try {
+      configs.forEach(this::enqueue);
+    } finally {
+      lock.lock();
+      try {
+        allQueued = true;
+        transferQueued.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      executor.shutdown();
+      logger.atInfo().log("Waiting for workers to complete.");
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void enqueue(TransferConfig config) {
+    lock.lock();
+    try {
+      queues.get(config.getPriority()).add(new QueuedTransfer(config, queuedCount++));
+      transferQueued.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void runQueuedTransfers(TransferConfig.Priority threadPriority) {
+    try {
+      TransferConfig config;
+      while ((config = takeNext(threadPriority)) != null) {
+        new TransferRunner(config, context).run();
+        slaTracker.recordFinished(
+            config, context.getRunJournal().getProgress(config.getTransferKey()).isDone());
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Takes the most urgent queued transfer the thread may run, waiting for one to be queued.
+   *
+   * @return the transfer, or {@code null} once all transfers for the thread are started.
+   */
+  @Nullable
+  private TransferConfig takeNext(TransferConfig.Priority threadPriority)
+      throws InterruptedException {
+    lock.lock();
+    try {
+      while (true) {
+        for (var priority : TransferConfig.Priority.values()) {
+          if (!priority.isAtLeast(threadPriority)) {
+            break;
+          }
+          var queued = queues.get(priority).poll();
+          if (queued != null) {
+            return queued.config;
+          }
+        }
+
+        if (allQueued) {
+          return null;
+        }
+        transferQueued.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class QueuedTransfer {
+
+    private final TransferConfig config;
+    private final long sequence;
+
+    private QueuedTransfer(TransferConfig config, long sequence) {
+      this.config = config;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Columns and rows of a report to keep, applied by {@link Html2CsvParseHandler} while parsing.
+ *
+ * <p>Columns are referred to by their formatted header name, e.g. {@code cost} or
+ * {@code ctr_}. The report timestamp column is always kept.
+ */
+@AutoValue
+public abstract class ReportFilter {
+
+  /** Keeps all the columns and rows. */
+  public static final ReportFilter NONE = create(ImmutableList.of(), ImmutableList.of());
+
+  private static final Splitter LIST_SPLITTER = Splitter.on(';').trimResults().omitEmptyStrings();
+
+  /** Names of the columns to keep in report order, empty to keep all columns. */
+  public abstract ImmutableList<String> getColumns();
+
+  /** Predicates which a row has to match, all of them, to be kept. */
+  public abstract ImmutableList<RowPredicate> getRowPredicates();
+
+  static ReportFilter create(
+      ImmutableList<String> columns, ImmutableList<RowPredicate> predicates) {
+    return new AutoValue_ReportFilter(columns, predicates);
+  }
+
+  /**
+   * Parses the filter of a configuration row.
+   *
+   * @param columns   {@code ;} separated column names, {@code null} to keep all columns.
+   * @param rowFilter {@code ;} separated predicates such as {@code cost>0}, {@code null} to keep
+   *                  all rows.
+   * @throws IllegalArgumentException if a predicate is malformed.
+   */
+  static ReportFilter parse(@Nullable String columns, @Nullable String rowFilter) {
+    if (columns == null && rowFilter == null) {
+      return NONE;
+    }
+
+    return create(
+        (columns == null)
+            ? ImmutableList.of()
+            : LIST_SPLITTER.splitToStream(columns.toLowerCase())
+                .collect(ImmutableList.toImmutableList()),
+        (rowFilter == null)
+            ? ImmutableList.of()
+            : LIST_SPLITTER.splitToStream(rowFilter)
+                .map(RowPredicate::parse)
+                .collect(ImmutableList.toImmutableList()));
+  }
+
+  /** Returns {@code true} if only some columns are kept. */
+  boolean hasColumnSelection() {
+    return !getColumns().isEmpty();
+  }
+
+  /** Comparison of a column with a constant, e.g. {@code cost>0}. */
+  @AutoValue
+  public abstract static class RowPredicate {
+
+    private static final Pattern PREDICATE_PATTERN =
+        Pattern.compile("^([A-Za-z0-9_]+)\\s*(!=|>=|<=|=|>|<)\\s*(.*)$");
+
+    /** Comparison operators, longer symbols first so they are matched first. */
+    enum Operator {
+      NOT_EQUAL("!="),
+      GREATER_OR_EQUAL(">="),
+      LESS_OR_EQUAL("<="),
+      EQUAL("="),
+      GREATER(">"),
+      LESS("<");
+
+      private final String symbol;
+
+      Operator(String symbol) {
+        this.symbol = symbol;
+      }
+
+      boolean accepts(int comparison) {
+        switch (this) {
+          case NOT_EQUAL:
+            return comparison != 0;
+          case GREATER_OR_EQUAL:
+            return comparison >= 0;
+          case LESS_OR_EQUAL:
+            return comparison <= 0;
+          case EQUAL:
+            return comparison == 0;
+          case GREATER:
+            return comparison > 0;
+          default:
+            return comparison < 0;
+        }
+      }
+
+      static Operator forSymbol(String symbol) {
+        for (var operator : values()) {
+          if (operator.symbol.equals(symbol)) {
+            return operator;
+          }
+        }
+        throw new IllegalArgumentException("unknown operator: " + symbol);
+      }
+    }
+
+    public abstract String column();
+
+    public abstract Operator operator();
+
+    public abstract String value();
+
+    /** The value as a number, {@code null} if it is not numeric. */
+    @Nullable
+    abstract Double numericValue();
+
+    static RowPredicate create(String column, Operator operator, String value) {
+      Double numericValue;
+      try {
+        numericValue = Double.valueOf(value);
+      } catch (NumberFormatException numberFormatException) {
+        numericValue = null;
+      }
+      return new AutoValue_ReportFilter_RowPredicate(column, operator, value, numericValue);
+    }
+
+    /**
+     * Parses a predicate such as {@code cost>0}, {@code device=Mobile} or
+     * {@code date>=2026-01-01}.
+     */
+    static RowPredicate parse(String expression) {
+      var matcher = PREDICATE_PATTERN.matcher(expression);
+      checkArgument(matcher.matches(), "malformed row filter: %s", expression);
+      return create(
+          matcher.group(1).toLowerCase(),
+          Operator.forSymbol(matcher.group(2)),
+          matcher.group(3).trim());
+    }
+
+    /**
+     * Tests the value of a cell, empty values (NULL) never match.
+     *
+     * @param cellValue the canonical value of a numeric or date cell, the text of other cells.
+     * @param numeric   compare as numbers instead of text, requires a numeric value.
+     */
+    boolean test(CharSequence cellValue, boolean numeric) {
+      if (cellValue.length() == 0) {
+        return false;
+      }
+
+      if (numeric) {
+        return operator().accepts(
+            Double.compare(Double.parseDouble(cellValue.toString()), numericValue()));
+      }
+
+      return operator().accepts(CharSequence.compare(cellValue, value()));
+    }
+
+    @Override
+    public final String toString() {
+      return column() + operator().symbol + value();
+    }
+  }
+}
@@ -0,0 +1,284 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.storage.BlobId;
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Write-ahead journal of the stages completed by each transfer in a run.
+ *
+ * <p>Every stage transition is appended as a tab separated line. The journal is synced to disk
+ * in batches by a background thread, so a crash loses at most the records of the last sync
+ * interval and those transfers are simply repeated on resume. The first line records the date of
+ * the run, as the transfers of a run load the tables of that date and only resume on the same day.
+ */
+class RunJournal implements AutoCloseable {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String RUN_DATE_RECORD = "RUN_DATE";
+
+  /** Stages of a transfer in the order they are completed. */
+  enum Stage {
+    FETCHED,
+    UPLOADED,
+    LOAD_STARTED,
+    DONE
+  }
+
+  private final File journalFile;
+  private final FileChannel journalChannel;
+  private final Map<String, TransferProgress> progressByKey;
+  private final ScheduledExecutorService syncExecutor;
+  private boolean dirty = false;
+
+  private RunJournal(File journalFile, Map<String, TransferProgress> progressByKey, boolean append)
+      throws IOException {
+    this.journalFile = journalFile;
+    this.progressByKey = progressByKey;
+    this.journalChannel =
+        FileChannel.open(
+            journalFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+    this.syncExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("journal-sync").setDaemon(true).build());
+    syncExecutor.scheduleWithFixedDelay(
+        this::sync,
+        Constants.JOURNAL_SYNC_INTERVAL_MILLIS,
+        Constants.JOURNAL_SYNC_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Opens the journal for a new run, discarding the records of any earlier run.
+   */
+  public static RunJournal create(File journalFile) throws IOException {
+    var journal = new RunJournal(journalFile, new HashMap<>(), /*append=*/ false);
+    journal.appendLine(
+        String.join(FIELD_SEPARATOR, RUN_DATE_RECORD, BigQueryProcessor.getDateSuffix()));
+    return journal;
+  }
+
+  /**
+   * Opens the journal of an earlier run to resume it, new records are appended to it.
+   *
+   * @throws IOException if the journal is from a run of another day, whose tables are already
+   *                     loaded or would be mixed up with today's.
+   */
+  public static RunJournal resume(File journalFile) throws IOException {
+    if (!journalFile.exists()) {
+      return create(journalFile);
+    }
+
+    var lines = Files.readAllLines(journalFile.toPath(), UTF_8);
+    var runDate = lines.isEmpty() ? new String[0] : lines.get(0).split(FIELD_SEPARATOR, -1);
+    var today = BigQueryProcessor.getDateSuffix();
+    if (runDate.length != 2 || !runDate[0].equals(RUN_DATE_RECORD) || !runDate[1].equals(today)) {
+      throw new IOException(
+          String.format(
+              "journal %s is not from a run of today (%s), start a new run without --resume",
+              journalFile, today));
+    }
+
+    var progressByKey = new HashMap<String, TransferProgress>();
+    for (var line : lines.subList(1, lines.size())) {
+      var fields = line.split(FIELD_SEPARATOR, -1);
+      if (fields.length != 3) {
+        // a partially written record from a crash.
+        logger.atWarning().log("skipping malformed journal record: %s", line);
+        continue;
+      }
+
+      try {
+        var key = fields[0];
+        progressByKey.put(
+            key,
+            applyRecord(
+                progressByKey.getOrDefault(key, TransferProgress.NOT_STARTED),
+                Stage.valueOf(fields[1]),
+                fields[2]));
+      } catch (IllegalArgumentException illegalArgumentException) {
+        logger.atWarning().log("skipping malformed journal record: %s", line);
+      }
+    }
+
+    logger.atInfo().log("resuming %s transfers from %s", progressByKey.size(), journalFile);
+    return new RunJournal(journalFile, progressByKey, /*append=*/ true);
+  }
+
+  /** Returns the progress recorded for the given transfer. */
+  public synchronized TransferProgress getProgress(String transferKey) {
+    return progressByKey.getOrDefault(transferKey, TransferProgress.NOT_STARTED);
+  }
+
+  public void recordFetched(String transferKey) throws IOException {
+    append(transferKey, Stage.FETCHED, "");
+  }
+
+  public void recordUploaded(String transferKey, BlobId blobId) throws IOException {
+    append(
+        transferKey,
+        Stage.UPLOADED,
+        String.join(
+            ",",
+            blobId.getBucket(),
+            blobId.getName(),
+            (blobId.getGeneration() == null) ? "" : blobId.getGeneration().toString()));
+  }
+
+  public void recordLoadStarted(String transferKey, JobId jobId) throws IOException {
+    append(
+        transferKey,
+        Stage.LOAD_STARTED,
+        String.join(
+            ",",
+            jobId.getProject(),
+            jobId.getJob(),
+            (jobId.getLocation() == null) ? "" : jobId.getLocation()));
+  }
+
+  public void recordDone(String transferKey) throws IOException {
+    append(transferKey, Stage.DONE, "");
+  }
+
+  private synchronized void append(String transferKey, Stage stage, String detail)
+      throws IOException {
+    appendLine(String.join(FIELD_SEPARATOR, transferKey, stage.name(), detail));
+    progressByKey.put(
+        transferKey, applyRecord(getProgress(transferKey), stage, detail));
+  }
+
+  private synchronized void appendLine(String line) throws IOException {
+    var buffer = ByteBuffer.wrap((line + "\n").getBytes(UTF_8));
+    while (buffer.hasRemaining()) {
+      journalChannel.write(buffer);
+    }
+    dirty = true;
+  }
+
+  /** Forces the journal records written since the last sync to disk. */
+  private synchronized void sync() {
+    if (!dirty || !journalChannel.isOpen()) {
+      return;
+    }
+
+    try {
+      journalChannel.force(false);
+      dirty = false;
+    } catch (IOException ioException) {
+      logger.atWarning().withCause(ioException).log("error syncing journal: %s", journalFile);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    syncExecutor.shutdownNow();
+    sync();
+    synchronized (this) {
+      journalChannel.close();
+    }
+  }
+
+  private static TransferProgress applyRecord(
+      TransferProgress progress, Stage stage, String detail) {
+    var fields = detail.split(",", -1);
+    switch (stage) {
+      case UPLOADED:
+        return progress.withStage(stage)
+            .withBlobId(
+                BlobId.of(
+                    fields[0], fields[1], fields[2].isEmpty() ? null : Long.valueOf(fields[2])));
+      case LOAD_STARTED:
+        return progress.withStage(stage)
+            .withLoadJobId(
+                JobId.newBuilder()
+                    .setProject(fields[0])
+                    .setJob(fields[1])
+                    .setLocation(fields[2].isEmpty() ? null : fields[2])
+                    .build());
+      default:
+        return progress.withStage(stage);
+    }
+  }
+
+  /** Progress of a single transfer as recorded in the journal. */
+  @AutoValue
+  abstract static class TransferProgress {
+
+    static final TransferProgress NOT_STARTED = create(null, null, null);
+
+    @Nullable
+    abstract Stage stage();
+
+    /** The staged report on Cloud Storage. */
+    @Nullable
+    abstract BlobId blobId();
+
+    /** The last BigQuery load job started for the report. */
+    @Nullable
+    abstract JobId loadJobId();
+
+    static TransferProgress create(Stage stage, BlobId blobId, JobId loadJobId) {
+      return new AutoValue_RunJournal_TransferProgress(stage, blobId, loadJobId);
+    }
+
+    boolean isDone() {
+      return stage() == Stage.DONE;
+    }
+
+    Optional<BlobId> getStagedBlob() {
+      return Optional.ofNullable(blobId());
+    }
+
+    Optional<JobId> getLoadJob() {
+      return Optional.ofNullable(loadJobId());
+    }
+
+    TransferProgress withStage(Stage newStage) {
+      return create(newStage, blobId(), loadJobId());
+    }
+
+    TransferProgress withBlobId(BlobId newBlobId) {
+      return create(stage(), newBlobId, loadJobId());
+    }
+
+    TransferProgress withLoadJobId(JobId newLoadJobId) {
+      return create(stage(), blobId(), newLoadJobId);
+    }
+  }
+}
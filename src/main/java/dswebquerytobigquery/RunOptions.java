@@ -0,0 +1,237 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Command line options for a run.
+ *
+ * <p>Expects the configuration file and the local temp folder as positional arguments, followed
+ * by optional {@code --name=value} flags.
+ */
+@AutoValue
+public abstract class RunOptions {
+
+  static Builder builder() {
+    return new AutoValue_RunOptions.Builder()
+        .setTempDiskQuotaBytes(Constants.DEFAULT_TEMP_DISK_QUOTA_MB * 1024L * 1024L)
+        .setInMemoryThresholdBytes(Constants.DEFAULT_IN_MEMORY_THRESHOLD_KB * 1024)
+        .setBufferPoolBytes(Constants.DEFAULT_BUFFER_POOL_MB * 1024L * 1024L)
+        .setBufferSizeBytes(Constants.DEFAULT_BUFFER_SIZE_KB * 1024)
+        .setResume(false)
+        .setAcceptSchemaChanges(false)
+        .setWorkerIndex(0)
+        .setWorkerCount(1)
+        .setLeaseTimeoutMillis(Constants.DEFAULT_LEASE_TIMEOUT_SECONDS * 1000L)
+        .setReservedThreads(ImmutableMap.of());
+  }
+
+  public abstract File getConfigFile();
+
+  public abstract File getTempFolder();
+
+  public abstract long getTempDiskQuotaBytes();
+
+  public abstract int getInMemoryThresholdBytes();
+
+  /** Memory budget of the I/O buffers shared by all transfers. */
+  public abstract long getBufferPoolBytes();
+
+  /** Size of every pooled buffer, the unit of the network, disk and Cloud Storage I/O. */
+  public abstract int getBufferSizeBytes();
+
+  public abstract File getJournalFile();
+
+  /** Resume the run recorded in the journal instead of starting afresh. */
+  public abstract boolean isResume();
+
+  /** File remembering the columns loaded into each destination table. */
+  public abstract File getSchemaRegistryFile();
+
+  /** Load reports which remove or retype columns of their destination instead of failing. */
+  public abstract boolean isAcceptSchemaChanges();
+
+  /** Shared work queue directory of a distributed run, {@code null} to run all transfers. */
+  @Nullable
+  public abstract File getQueueDir();
+
+  public abstract int getWorkerIndex();
+
+  public abstract int getWorkerCount();
+
+  public abstract long getLeaseTimeoutMillis();
+
+  /** Number of threads which only run transfers of the given priority or a more urgent one. */
+  public abstract ImmutableMap<TransferConfig.Priority, Integer> getReservedThreads();
+
+  /**
+   * Parses the command line arguments.
+   *
+   * @throws IllegalArgumentException if the arguments are missing or malformed.
+   */
+  public static RunOptions parse(String[] args) {
+    var positionalArgs = new ArrayList<String>();
+    var flags = new HashMap<String, String>();
+
+    for (var arg : args) {
+      if (arg.startsWith("--")) {
+        var parts = arg.substring(2).split("=", 2);
+        flags.put(parts[0], (parts.length == 2) ? parts[1] : "true");
+      } else {
+        positionalArgs.add(arg);
+      }
+    }
+
+    checkArgument(
+        positionalArgs.size() == 2, "Provide Configuration CSV and location for csv reports");
+
+    var tempFolder = new File(positionalArgs.get(1));
+    var builder =
+        builder()
+            .setConfigFile(new File(positionalArgs.get(0)))
+            .setTempFolder(tempFolder)
+            .setJournalFile(new File(tempFolder, Constants.DEFAULT_JOURNAL_FILE_NAME))
+            .setSchemaRegistryFile(
+                new File(tempFolder, Constants.DEFAULT_SCHEMA_REGISTRY_FILE_NAME));
+
+    for (var flag : flags.entrySet()) {
+      var value = flag.getValue();
+      switch (flag.getKey()) {
+        case "tempDiskQuotaMb":
+          builder.setTempDiskQuotaBytes(parseLong(flag.getKey(), value) * 1024L * 1024L);
+          break;
+        case "inMemoryThresholdKb":
+          builder.setInMemoryThresholdBytes(
+              Math.toIntExact(parseLong(flag.getKey(), value) * 1024L));
+          break;
+        case "bufferPoolMb":
+          builder.setBufferPoolBytes(parseLong(flag.getKey(), value) * 1024L * 1024L);
+          break;
+        case "bufferSizeKb":
+          var bufferSizeKb = parseLong(flag.getKey(), value);
+          checkArgument(
+              bufferSizeKb > 0 && bufferSizeKb % 256 == 0,
+              "--bufferSizeKb should be a multiple of 256, found: %s",
+              bufferSizeKb);
+          builder.setBufferSizeBytes(Math.toIntExact(bufferSizeKb * 1024L));
+          break;
+        case "journal":
+          builder.setJournalFile(new File(value));
+          break;
+        case "resume":
+          builder.setResume(Boolean.parseBoolean(value));
+          break;
+        case "schemaRegistry":
+          builder.setSchemaRegistryFile(new File(value));
+          break;
+        case "acceptSchemaChanges":
+          builder.setAcceptSchemaChanges(Boolean.parseBoolean(value));
+          break;
+        case "queueDir":
+          builder.setQueueDir(new File(value));
+          break;
+        case "workerIndex":
+          builder.setWorkerIndex(Math.toIntExact(parseLong(flag.getKey(), value)));
+          break;
+        case "workerCount":
+          builder.setWorkerCount(Math.toIntExact(parseLong(flag.getKey(), value)));
+          break;
+        case "leaseTimeoutSeconds":
+          builder.setLeaseTimeoutMillis(parseLong(flag.getKey(), value) * 1000L);
+          break;
+        case "reservedThreads":
+          builder.setReservedThreads(parseReservedThreads(value));
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option: --" + flag.getKey());
+      }
+    }
+
+    return builder.build();
+  }
+
+  /** Parses the threads per priority, e.g. {@code high:3,normal:1}. */
+  private static ImmutableMap<TransferConfig.Priority, Integer> parseReservedThreads(
+      String value) {
+    var reservedThreads =
+        new EnumMap<TransferConfig.Priority, Integer>(TransferConfig.Priority.class);
+    for (var entry : value.split(",")) {
+      var parts = entry.split(":", 2);
+      checkArgument(
+          parts.length == 2, "--reservedThreads expects priority:count, found: %s", entry);
+      var count = parseLong("reservedThreads", parts[1].trim());
+      checkArgument(count >= 0, "--reservedThreads count should not be negative: %s", entry);
+      reservedThreads.put(TransferConfig.Priority.parse(parts[0]), Math.toIntExact(count));
+    }
+    return Maps.immutableEnumMap(reservedThreads);
+  }
+
+  private static long parseLong(String flagName, String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException numberFormatException) {
+      throw new IllegalArgumentException(
+          String.format("--%s expects a number, found: %s", flagName, value),
+          numberFormatException);
+    }
+  }
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setConfigFile(File newConfigFile);
+
+    public abstract Builder setTempFolder(File newTempFolder);
+
+    public abstract Builder setTempDiskQuotaBytes(long newTempDiskQuotaBytes);
+
+    public abstract Builder setInMemoryThresholdBytes(int newInMemoryThresholdBytes);
+
+    public abstract Builder setBufferPoolBytes(long newBufferPoolBytes);
+
+    public abstract Builder setBufferSizeBytes(int newBufferSizeBytes);
+
+    public abstract Builder setJournalFile(File newJournalFile);
+
+    public abstract Builder setResume(boolean newResume);
+
+    public abstract Builder setSchemaRegistryFile(File newSchemaRegistryFile);
+
+    public abstract Builder setAcceptSchemaChanges(boolean newAcceptSchemaChanges);
+
+    public abstract Builder setQueueDir(File newQueueDir);
+
+    public abstract Builder setWorkerIndex(int newWorkerIndex);
+
+    public abstract Builder setWorkerCount(int newWorkerCount);
+
+    public abstract Builder setLeaseTimeoutMillis(long newLeaseTimeoutMillis);
+
+    public abstract Builder setReservedThreads(
+        ImmutableMap<TransferConfig.Priority, Integer> newReservedThreads);
+
+    public abstract RunOptions build();
+  }
+}
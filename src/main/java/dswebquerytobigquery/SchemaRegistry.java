@@ -0,0 +1,258 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.GoogleLogger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the columns last loaded into each destination table, across runs.
+ *
+ * <p>The daily tables of a destination are queried together with wildcard queries, which break
+ * when a column of the earlier tables disappears or changes its type. New report columns are
+ * compatible, they are added as nullable columns. The registry is a tab separated file, rewritten
+ * atomically after every successful load.
+ *
+ * <p>Workers of a distributed run may share the file: a new record re-reads the file and merges
+ * into it while holding a lock on a sibling {@code .lock} file, and compatibility checks re-read
+ * the file once another worker changed it.
+ */
+class SchemaRegistry {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String COLUMN_SEPARATOR = ",";
+  private static final String TYPE_SEPARATOR = ":";
+
+  private final File registryFile;
+  private final boolean acceptIncompatibleChanges;
+  private final Map<String, ImmutableList<ColumnHeader>> columnsByDestination = new TreeMap<>();
+  /** Modification time of the registry file when it was last read or written. */
+  private long readModifiedMillis = -1;
+
+  private SchemaRegistry(File registryFile, boolean acceptIncompatibleChanges) {
+    this.registryFile = registryFile;
+    this.acceptIncompatibleChanges = acceptIncompatibleChanges;
+  }
+
+  /**
+   * Reads the registry file, a missing file is an empty registry.
+   *
+   * @param acceptIncompatibleChanges record incompatible schemas instead of rejecting them.
+   */
+  public static SchemaRegistry open(File registryFile, boolean acceptIncompatibleChanges)
+      throws IOException {
+    var registry = new SchemaRegistry(registryFile, acceptIncompatibleChanges);
+    registry.refresh();
+
+    logger.atInfo().log(
+        "schema registry %s: %s destinations",
+        registryFile, registry.columnsByDestination.size());
+    return registry;
+  }
+
+  /**
+   * Compares the report columns with the columns last loaded into the destination.
+   *
+   * @throws IOException if the registry file changed by another worker cannot be read.
+   */
+  public synchronized SchemaChange diff(
+      BigQueryConfig destination, ImmutableList<ColumnHeader> columns) throws IOException {
+    refresh();
+    var previousColumns = columnsByDestination.get(destinationKey(destination));
+    if (previousColumns == null || columns.isEmpty()) {
+      return SchemaChange.NONE;
+    }
+
+    var columnsByName = new HashMap<String, ColumnHeader>();
+    columns.forEach(column -> columnsByName.put(column.name().toLowerCase(), column));
+    var previousNames = new ArrayList<String>();
+    var incompatibilities = ImmutableList.<String>builder();
+
+    for (var previousColumn : previousColumns) {
+      var name = previousColumn.name().toLowerCase();
+      previousNames.add(name);
+      var column = columnsByName.get(name);
+
+      if (column == null) {
+        incompatibilities.add("removed column " + previousColumn.name());
+      } else if (!column.bqType().equals(previousColumn.bqType())) {
+        incompatibilities.add(
+            String.format(
+                "column %s changed type from %s to %s",
+                column.name(), previousColumn.bqType(), column.bqType()));
+      }
+    }
+
+    return SchemaChange.create(
+        columns.stream()
+            .filter(column -> !previousNames.contains(column.name().toLowerCase()))
+            .collect(toImmutableList()),
+        incompatibilities.build());
+  }
+
+  /**
+   * Verifies that the report can be loaded into the destination.
+   *
+   * @return the compatible change of the destination schema.
+   * @throws IOException if the report removes or retypes columns of the destination.
+   */
+  public SchemaChange checkCompatible(
+      BigQueryConfig destination, ImmutableList<ColumnHeader> columns) throws IOException {
+    var schemaChange = diff(destination, columns);
+    if (schemaChange.isCompatible()) {
+      return schemaChange;
+    }
+
+    if (acceptIncompatibleChanges) {
+      logger.atWarning().log(
+          "accepting incompatible schema of %s: %s",
+          destinationKey(destination), schemaChange.incompatibilities());
+      return schemaChange;
+    }
+
+    throw new IOException(
+        String.format(
+            "incompatible schema for %s: %s",
+            destinationKey(destination), String.join(", ", schemaChange.incompatibilities())));
+  }
+
+  /**
+   * Records the columns loaded into the destination, merged with the records of other workers
+   * sharing the file.
+   */
+  public synchronized void record(
+      BigQueryConfig destination, ImmutableList<ColumnHeader> columns) throws IOException {
+    var key = destinationKey(destination);
+    if (columns.isEmpty()) {
+      return;
+    }
+
+    var lockFile = new File(registryFile.getPath() + ".lock").toPath();
+    try (var lockChannel =
+            FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        var lock = lockChannel.lock()) {
+      // the modification time may not tell apart writes of other workers within its granularity.
+      read();
+      if (columns.equals(columnsByDestination.get(key))) {
+        return;
+      }
+
+      columnsByDestination.put(key, columns);
+      write();
+    }
+  }
+
+  /** Re-reads the registry file if it changed since it was last read or written. */
+  private void refresh() throws IOException {
+    if (registryFile.lastModified() != readModifiedMillis) {
+      read();
+    }
+  }
+
+  private void read() throws IOException {
+    var modifiedMillis = registryFile.lastModified();
+    columnsByDestination.clear();
+    if (registryFile.exists()) {
+      for (var line : Files.readAllLines(registryFile.toPath(), UTF_8)) {
+        var fields = line.split(FIELD_SEPARATOR, -1);
+        if (fields.length != 2) {
+          logger.atWarning().log("skipping malformed schema record: %s", line);
+          continue;
+        }
+        columnsByDestination.put(fields[0], parseColumns(fields[1]));
+      }
+    }
+    readModifiedMillis = modifiedMillis;
+  }
+
+  /** Rewrites the registry through a temporary file, so a crash never leaves it partial. */
+  private void write() throws IOException {
+    var lines = new ArrayList<String>();
+    columnsByDestination.forEach(
+        (destination, columns) ->
+            lines.add(destination + FIELD_SEPARATOR + formatColumns(columns)));
+
+    var tempFile = new File(registryFile.getPath() + ".tmp").toPath();
+    Files.write(tempFile, lines, UTF_8);
+    Files.move(
+        tempFile,
+        registryFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    readModifiedMillis = registryFile.lastModified();
+  }
+
+  private static String destinationKey(BigQueryConfig destination) {
+    return String.format(
+        "%s:%s.%s",
+        destination.getProjectId(), destination.getDatasetId(), destination.getTableId());
+  }
+
+  private static String formatColumns(ImmutableList<ColumnHeader> columns) {
+    return columns.stream()
+        .map(column -> column.name() + TYPE_SEPARATOR + column.bqType())
+        .collect(Collectors.joining(COLUMN_SEPARATOR));
+  }
+
+  private static ImmutableList<ColumnHeader> parseColumns(String field) {
+    var columns = ImmutableList.<ColumnHeader>builder();
+    for (var column : field.split(COLUMN_SEPARATOR)) {
+      var parts = column.split(TYPE_SEPARATOR, 2);
+      if (parts.length == 2) {
+        columns.add(ColumnHeader.create(parts[0], parts[1]));
+      }
+    }
+    return columns.build();
+  }
+
+  /** Difference between the report columns and the columns of the destination. */
+  @AutoValue
+  abstract static class SchemaChange {
+
+    static final SchemaChange NONE = create(ImmutableList.of(), ImmutableList.of());
+
+    /** Report columns not yet in the destination, added as nullable columns. */
+    abstract ImmutableList<ColumnHeader> addedColumns();
+
+    /** Descriptions of the removed and retyped columns of the destination. */
+    abstract ImmutableList<String> incompatibilities();
+
+    static SchemaChange create(
+        ImmutableList<ColumnHeader> addedColumns, ImmutableList<String> incompatibilities) {
+      return new AutoValue_SchemaRegistry_SchemaChange(addedColumns, incompatibilities);
+    }
+
+    boolean isCompatible() {
+      return incompatibilities().isEmpty();
+    }
+  }
+}
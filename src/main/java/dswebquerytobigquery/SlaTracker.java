@@ -0,0 +1,85 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import com.google.common.flogger.GoogleLogger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the outcome of the transfers against their deadlines.
+ *
+ * <p>A transfer meets its deadline if it succeeded before it. Transfers finishing late or failing
+ * are logged when they finish and listed again in the summary at the end of the run.
+ */
+final class SlaTracker {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private final Map<TransferConfig.Priority, long[]> finishedCounts =
+      new EnumMap<>(TransferConfig.Priority.class);
+  private final List<String> misses = new ArrayList<>();
+  private int deadlineCount = 0;
+
+  /**
+   * Records the end of the transfer.
+   *
+   * @param succeeded whether the report was loaded.
+   */
+  synchronized void recordFinished(TransferConfig config, boolean succeeded) {
+    var counts = finishedCounts.computeIfAbsent(config.getPriority(), priority -> new long[2]);
+    counts[succeeded ? 0 : 1]++;
+
+    var deadline = config.getDeadline();
+    if (deadline == null) {
+      return;
+    }
+
+    deadlineCount++;
+    var finishedAt = Instant.now();
+    if (succeeded && !finishedAt.isAfter(deadline)) {
+      return;
+    }
+
+    var miss =
+        succeeded
+            ? String.format(
+                "%s finished %s after its deadline %s",
+                config, Duration.between(deadline, finishedAt), deadline)
+            : String.format("%s failed, deadline %s", config, deadline);
+    misses.add(miss);
+    logger.atWarning().log("SLA missed: %s", miss);
+  }
+
+  /** Logs the transfers per priority and the missed deadlines. */
+  synchronized void logSummary() {
+    finishedCounts.forEach(
+        (priority, counts) ->
+            logger.atInfo().log(
+                "%s priority transfers: %s succeeded, %s failed", priority, counts[0], counts[1]));
+
+    if (deadlineCount == 0) {
+      return;
+    }
+
+    logger.atInfo().log(
+        "deadlines met: %s of %s", deadlineCount - misses.size(), deadlineCount);
+    misses.forEach(miss -> logger.atWarning().log("SLA missed: %s", miss));
+  }
+}
@@ -0,0 +1,33 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import com.google.auto.value.AutoValue;
+import com.google.cloud.storage.Blob;
+import com.google.common.collect.ImmutableList;
+
+/** Model to denote a WebQuery report converted to CSV and stored on Cloud Storage. */
+@AutoValue
+public abstract class StagedReport {
+
+  public abstract Blob blob();
+
+  /** The columns of the CSV file, empty if not known. */
+  public abstract ImmutableList<ColumnHeader> columns();
+
+  public static StagedReport create(Blob blob, ImmutableList<ColumnHeader> columns) {
+    return new AutoValue_StagedReport(blob, columns);
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import com.google.common.flogger.GoogleLogger;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.xml.sax.SAXException;
+
+/**
+ * Shares the staged reports among the transfers of a run.
+ *
+ * <p>Config rows often load the same WebQuery report into several destinations. The first
+ * transfer of a report fetches, parses and stages it; the other transfers wait for it and load the
+ * same staged file, or a server side copy of it when their staging bucket differs. Reports are
+ * shared when both their URL and {@link ReportFilter} are equal.
+ *
+ * <p>A failed staging fails the transfers waiting for it. The staging transfer can therefore only
+ * abandon a report it cannot load itself while no other transfer waits for it, see {@link
+ * Subscription#tryDetach()}.
+ */
+final class StagedReportCache {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private final ConcurrentHashMap<String, PendingReport> stagedReports =
+      new ConcurrentHashMap<>();
+
+  /** Stages a report on Cloud Storage. */
+  interface Stager {
+
+    /**
+     * Stages the report.
+     *
+     * @param subscription the transfers sharing the report.
+     */
+    StagedReport stage(Subscription subscription)
+        throws IOException, SAXException, InterruptedException;
+  }
+
+  /** The transfers sharing a report being staged. */
+  interface Subscription {
+
+    /**
+     * Removes the report from the cache if no other transfer waits for it, so its staging can be
+     * abandoned without failing other transfers. Transfers asking for the report afterwards stage
+     * it again.
+     *
+     * @return {@code false} if other transfers wait for the report.
+     */
+    boolean tryDetach();
+  }
+
+  /**
+   * Returns the report of the transfer staged in its bucket, staging it if no other transfer did.
+   *
+   * @param config            the transfer to load the report for.
+   * @param stager            fetches and stages the report, called once per report.
+   * @param storageController copies a staged report to other buckets.
+   * @throws IOException if the report could not be staged, also when another transfer failed.
+   */
+  StagedReport getOrStage(
+      TransferConfig config, Stager stager, StorageController storageController)
+      throws IOException, SAXException, InterruptedException {
+    var reportKey = config.getWebQueryUrl() + "|" + config.getReportFilter();
+    var stagedReport = getOrCompute(reportKey, stager);
+
+    var bucketName = config.getTempGcsBucketName();
+    if (stagedReport.blob().getBucket().equals(bucketName)) {
+      return stagedReport;
+    }
+
+    return getOrCompute(
+        reportKey + "|" + bucketName,
+        subscription ->
+            StagedReport.create(
+                storageController.copyToBucket(stagedReport.blob(), bucketName),
+                stagedReport.columns()));
+  }
+
+  private StagedReport getOrCompute(String key, Stager stager)
+      throws IOException, SAXException, InterruptedException {
+    var newReport = new PendingReport();
+    var report =
+        stagedReports.compute(
+            key,
+            (reportKey, existingReport) -> {
+              if (existingReport == null) {
+                return newReport;
+              }
+              existingReport.subscriberCount++;
+              return existingReport;
+            });
+
+    if (report == newReport) {
+      try {
+        var stagedReport = stager.stage(() -> tryDetach(key, report));
+        report.future.complete(stagedReport);
+        return stagedReport;
+      } catch (Throwable throwable) {
+        // waiting transfers fail as well, later ones try again.
+        stagedReports.remove(key, report);
+        report.future.completeExceptionally(throwable);
+        throw throwable;
+      }
+    }
+
+    if (!report.future.isDone()) {
+      logger.atInfo().log("waiting for report staged by another transfer: %s", key);
+    }
+
+    try {
+      return report.future.get();
+    } catch (ExecutionException executionException) {
+      throw new IOException(
+          "staging by another transfer failed: " + key, executionException.getCause());
+    }
+  }
+
+  /** Removes the report from the cache unless other transfers wait for it. */
+  private boolean tryDetach(String key, PendingReport report) {
+    return stagedReports.computeIfPresent(
+            key,
+            (reportKey, existingReport) ->
+                (existingReport == report && report.subscriberCount == 1) ? null : existingReport)
+        != report;
+  }
+
+  /** A report with the number of transfers which asked for it, updated within the map. */
+  private static final class PendingReport {
+
+    private final CompletableFuture<StagedReport> future = new CompletableFuture<>();
+    private int subscriberCount = 1;
+  }
+}
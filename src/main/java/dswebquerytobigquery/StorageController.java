@@ -21,11 +21,11 @@ import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
 import com.google.common.flogger.GoogleLogger;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.net.HttpURLConnection;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Service to store files into Google Cloud Storage.
@@ -35,37 +35,116 @@ class StorageController {
   private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
 
   private final Storage storageService;
+  private final BufferPool bufferPool;
 
-  public StorageController(Storage storageService) {
+  public StorageController(Storage storageService, BufferPool bufferPool) {
     this.storageService = storageService;
+    this.bufferPool = bufferPool;
   }
 
   /**
-   * Stores the provided local file to Google Cloud Storage.
+   * Stores the provided staging file to Google Cloud Storage.
    *
-   * @param file          the local file to be uploaded.
+   * @param tempFile      the local staging file, which may still be held in memory.
    * @param gcsBucketName the Cloud Storage Bucket name.
    * @param folder        the name of the folder to store the file on GCS.
    * @return the URI of the stored object.
    * @throws IOException in-case there is error uploading the file.
+   * @throws InterruptedException if interrupted while waiting for a buffer.
    */
-  public Blob uploadFile(File file, String gcsBucketName, String folder) throws IOException {
-    checkNotNull(file, "Null/Empty file");
+  public Blob uploadFile(TempFileManager.TempFile tempFile, String gcsBucketName, String folder)
+      throws IOException, InterruptedException {
+    checkNotNull(tempFile, "Null/Empty file");
     checkNotNull(folder, "Null Folder name");
     checkArgument(gcsBucketName != null && !gcsBucketName.isEmpty(), "Null Bucket Name");
 
+    var objectName = String.format("%s/%s", folder, tempFile.getName());
+    if (tempFile.isInMemory() && bufferPool.tryReserve()) {
+      try {
+        return upload(gcsBucketName, objectName, writer -> tempFile.writeTo(writer, null));
+      } finally {
+        bufferPool.releaseReservation();
+      }
+    }
+
+    // The file in memory holds pool buffers, it must not wait for the pool.
+    tempFile.moveToDisk();
+    var buffer = bufferPool.acquireWithReservation();
+    try {
+      return upload(gcsBucketName, objectName, writer -> tempFile.writeTo(writer, buffer));
+    } finally {
+      bufferPool.releaseWithReservation(buffer);
+    }
+  }
+
+  /**
+   * Returns {@code false} if the bucket does not exist.
+   *
+   * <p>Reading the bucket needs {@code storage.buckets.get}, which object level roles lack. A
+   * bucket which cannot be read is assumed to exist, the upload reports the actual error.
+   */
+  public boolean bucketExists(String gcsBucketName) {
+    try {
+      return storageService.get(gcsBucketName) != null;
+    } catch (StorageException storageException) {
+      if (storageException.getCode() != HttpURLConnection.HTTP_FORBIDDEN) {
+        throw storageException;
+      }
+      logger.atFine().log("no permission to read bucket %s, assuming it exists", gcsBucketName);
+      return true;
+    }
+  }
+
+  /**
+   * Copies the object to another bucket on the server side, keeping its name.
+   *
+   * @param source        the object to copy.
+   * @param gcsBucketName the Cloud Storage Bucket to copy to.
+   * @return the copied object.
+   */
+  public Blob copyToBucket(Blob source, String gcsBucketName) {
+    checkArgument(gcsBucketName != null && !gcsBucketName.isEmpty(), "Null Bucket Name");
+
     var gcsObject =
         storageService
-          .create(
-            BlobInfo
-              .newBuilder(BlobId.of(gcsBucketName, String.format("%s/%s", folder, file.getName())))
-              .setContentType("text/csv")
-              .build(),
-            Files.readAllBytes(Paths.get(file.getAbsolutePath())));
+            .copy(
+                Storage.CopyRequest.of(
+                    source.getBlobId(), BlobId.of(gcsBucketName, source.getName())))
+            .getResult();
+
+    logger.atInfo().log(
+        "GCS File Id: %s copied from %s", gcsObject.getBlobId(), source.getBlobId());
+    return gcsObject;
+  }
+
+  /**
+   * Streams the content to a new object, so no copy of the whole file is kept in memory.
+   *
+   * <p>The client buffers one upload chunk on the heap, which is sized as a pool buffer. The caller
+   * reserves the chunk in the pool for the duration of the upload.
+   */
+  private Blob upload(String gcsBucketName, String objectName, ContentWriter contentWriter)
+      throws IOException {
+    var blobInfo =
+        BlobInfo.newBuilder(BlobId.of(gcsBucketName, objectName))
+            .setContentType("text/csv")
+            .build();
+
+    try (var writer = storageService.writer(blobInfo)) {
+      writer.setChunkSize(bufferPool.getBufferSize());
+      contentWriter.writeTo(writer);
+    }
 
+    var gcsObject = storageService.get(blobInfo.getBlobId());
     logger.atInfo().log("GCS File Id: %s", gcsObject.getBlobId());
 
     // create a gs link to the file
     return gcsObject;
   }
+
+  /** Writes the content of a file to the upload channel. */
+  private interface ContentWriter {
+
+    void writeTo(WritableByteChannel writer) throws IOException;
+  }
 }
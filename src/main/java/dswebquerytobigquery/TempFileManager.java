@@ -0,0 +1,465 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static dswebquerytobigquery.Constants.CSV_FILE_PREFIX;
+
+import com.google.common.flogger.GoogleLogger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+
+/**
+ * Manages the local staging files for WebQuery reports within a total disk quota.
+ *
+ * <p>Small reports are kept in memory and only spill to the temp folder once they grow beyond the
+ * in-memory threshold. New files wait while the bytes on disk exceed the quota, and every file is
+ * deleted as soon as it is closed. The bytes are charged to the quota as they are written: a write
+ * which would exceed the quota waits until other files are closed. The content of a spilling file
+ * is moved to the disk without waiting, as it holds pool buffers the other files may need to make
+ * progress, so the quota may be exceeded by up to the in-memory threshold per file.
+ *
+ * <p>Only a report larger than the whole quota fails, or one whose write would wait for files
+ * which are all waiting for quota themselves.
+ */
+class TempFileManager {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private final File tempFolder;
+  private final long diskQuotaBytes;
+  private final int inMemoryThresholdBytes;
+  private final BufferPool bufferPool;
+  private final long processId = ProcessHandle.current().pid();
+  private final AtomicInteger fileCounter = new AtomicInteger();
+
+  private final ReentrantLock quotaLock = new ReentrantLock();
+  private final Condition quotaAvailable = quotaLock.newCondition();
+  private long diskBytesInUse = 0;
+  /** Files with content on the disk, and those of them waiting for quota to write more. */
+  private int diskFileCount = 0;
+  private int waitingDiskFileCount = 0;
+
+  /**
+   * Initializes the manager for the given folder.
+   *
+   * @param tempFolder             the local folder to spill the CSV files into.
+   * @param diskQuotaBytes         total bytes that may be used in the folder before new files wait.
+   * @param inMemoryThresholdBytes size up to which a file is buffered in memory.
+   * @param bufferPool             the pool providing the memory buffers.
+   */
+  public TempFileManager(
+      File tempFolder, long diskQuotaBytes, int inMemoryThresholdBytes, BufferPool bufferPool) {
+    checkArgument(tempFolder.isDirectory(), "provided URI is not a folder: %s", tempFolder);
+    checkArgument(diskQuotaBytes > 0, "disk quota should be positive: %s", diskQuotaBytes);
+    checkArgument(inMemoryThresholdBytes >= 0, "negative in-memory threshold");
+    this.tempFolder = tempFolder;
+    this.diskQuotaBytes = diskQuotaBytes;
+    this.inMemoryThresholdBytes = inMemoryThresholdBytes;
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * Deletes CSV files left behind by runs which are no longer alive.
+   *
+   * @return number of files deleted.
+   */
+  public int sweepOrphans() {
+    var files = tempFolder.listFiles((dir, name) -> name.startsWith(CSV_FILE_PREFIX));
+    if (files == null) {
+      return 0;
+    }
+
+    var deletedCount = 0;
+    for (var file : files) {
+      if (!isOwnedByLiveProcess(file.getName()) && file.delete()) {
+        logger.atInfo().log("deleted orphan file: %s", file.getAbsolutePath());
+        deletedCount++;
+      }
+    }
+    return deletedCount;
+  }
+
+  /**
+   * Creates a new staging file for the report, waiting while the disk quota is exhausted.
+   *
+   * @param reportId the WebQuery report id used to name the file.
+   * @throws InterruptedException if interrupted while waiting for quota.
+   */
+  public TempFile newTempFile(String reportId) throws InterruptedException {
+    quotaLock.lock();
+    try {
+      while (diskBytesInUse >= diskQuotaBytes) {
+        logger.atInfo().atMostEvery(30, TimeUnit.SECONDS)
+            .log("temp disk quota reached (%s bytes), waiting.", diskBytesInUse);
+        quotaAvailable.await();
+      }
+    } finally {
+      quotaLock.unlock();
+    }
+
+    return new TempFile(
+        new File(
+            tempFolder,
+            String.format(
+                "%s%s_%s_%s.csv",
+                CSV_FILE_PREFIX, processId, fileCounter.incrementAndGet(), reportId)));
+  }
+
+  /** Returns the bytes currently spilled to the temp folder. */
+  public long getDiskBytesInUse() {
+    quotaLock.lock();
+    try {
+      return diskBytesInUse;
+    } finally {
+      quotaLock.unlock();
+    }
+  }
+
+  /**
+   * Charges the bytes about to be written to the quota, waiting while they do not fit in it.
+   *
+   * @param fileBytes the bytes the file already holds on the disk.
+   * @throws IOException if the file would exceed the whole quota, or all other files on the disk
+   *                     are waiting for quota as well.
+   * @throws InterruptedIOException if interrupted while waiting for quota.
+   */
+  private void awaitDiskBytes(long bytes, long fileBytes, File file) throws IOException {
+    if (fileBytes + bytes > diskQuotaBytes) {
+      throw new IOException(
+          String.format("report %s exceeds the temp disk quota of %s bytes", file, diskQuotaBytes));
+    }
+
+    quotaLock.lock();
+    try {
+      while (diskBytesInUse + bytes > diskQuotaBytes) {
+        if (fileBytes > 0 && waitingDiskFileCount + 1 >= diskFileCount) {
+          // none of the files could ever release its bytes.
+          throw new IOException(
+              String.format(
+                  "temp disk quota of %s bytes used up by %s files all waiting for quota: %s",
+                  diskQuotaBytes, diskFileCount, file));
+        }
+
+        logger.atInfo().atMostEvery(30, TimeUnit.SECONDS)
+            .log("temp disk quota reached (%s bytes), waiting to write.", diskBytesInUse);
+        waitingDiskFileCount += (fileBytes > 0) ? 1 : 0;
+        try {
+          quotaAvailable.await();
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted waiting for temp disk quota: " + file);
+        } finally {
+          waitingDiskFileCount -= (fileBytes > 0) ? 1 : 0;
+        }
+      }
+      chargeDiskBytes(bytes, fileBytes);
+    } finally {
+      quotaLock.unlock();
+    }
+  }
+
+  /** Charges the bytes to the quota without waiting, even if they exceed it. */
+  private void forceDiskBytes(long bytes, long fileBytes) {
+    quotaLock.lock();
+    try {
+      chargeDiskBytes(bytes, fileBytes);
+    } finally {
+      quotaLock.unlock();
+    }
+  }
+
+  private void chargeDiskBytes(long bytes, long fileBytes) {
+    if (fileBytes == 0 && bytes > 0) {
+      diskFileCount++;
+    }
+    diskBytesInUse += bytes;
+  }
+
+  private void releaseDiskBytes(long bytes) {
+    quotaLock.lock();
+    try {
+      if (bytes > 0) {
+        diskFileCount--;
+      }
+      diskBytesInUse -= bytes;
+      quotaAvailable.signalAll();
+    } finally {
+      quotaLock.unlock();
+    }
+  }
+
+  /**
+   * Returns {@code true} when the file name carries the pid of a running process.
+   * Files named without a pid are treated as orphans.
+   */
+  private static boolean isOwnedByLiveProcess(String fileName) {
+    var pidPart = fileName.substring(CSV_FILE_PREFIX.length()).split("_", 2)[0];
+    try {
+      return ProcessHandle.of(Long.parseLong(pidPart)).map(ProcessHandle::isAlive).orElse(false);
+    } catch (NumberFormatException numberFormatException) {
+      return false;
+    }
+  }
+
+  /**
+   * A staging file which is buffered in memory until it exceeds the in-memory threshold.
+   *
+   * <p>The memory buffers are taken from the {@link BufferPool}, the file spills to the disk early
+   * when the pool is exhausted. Closing the file deletes it from disk, returns its bytes to the
+   * quota and its buffers to the pool.
+   */
+  public class TempFile implements AutoCloseable {
+
+    private final File file;
+    private final List<ByteBuffer> memoryChunks = new ArrayList<>();
+    private long memoryBytes = 0;
+    private FileChannel diskChannel;
+    private long diskBytes = 0;
+    private boolean opened = false;
+    private boolean outputClosed = false;
+    private boolean closed = false;
+
+    private TempFile(File file) {
+      this.file = file;
+    }
+
+    /** Returns the name used for the file on disk and in Cloud Storage. */
+    public String getName() {
+      return file.getName();
+    }
+
+    /** Returns {@code true} while the content has not spilled to the disk. */
+    public boolean isInMemory() {
+      return diskChannel == null;
+    }
+
+    /** Returns the number of bytes written to the file. */
+    public long size() {
+      return isInMemory() ? memoryBytes : diskBytes;
+    }
+
+    /**
+     * Opens the channel to write the file content. The channel can only be opened once.
+     *
+     * <p>Writes should be large, such as whole buffers of the pool, as they go to the disk file
+     * without further buffering once the file spilled.
+     */
+    public WritableByteChannel openChannel() {
+      checkState(!opened, "file already opened: %s", file);
+      opened = true;
+      return new SpillingChannel();
+    }
+
+    /**
+     * Copies the complete content of the file to the channel, once its output channel is closed.
+     *
+     * @param readBuffer buffer to read the file from the disk, not needed while it is in memory.
+     */
+    public void writeTo(WritableByteChannel target, @Nullable ByteBuffer readBuffer)
+        throws IOException {
+      checkState(outputClosed, "file not completely written: %s", file);
+
+      if (isInMemory()) {
+        for (var chunk : memoryChunks) {
+          var content = chunk.duplicate();
+          content.flip();
+          while (content.hasRemaining()) {
+            target.write(content);
+          }
+        }
+        return;
+      }
+
+      checkState(readBuffer != null, "no buffer to read the file: %s", file);
+      readBuffer.clear();
+      try (var source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        int count;
+        while ((count = source.read(readBuffer)) != -1) {
+          IoStats.recordRead(count);
+          readBuffer.flip();
+          while (readBuffer.hasRemaining()) {
+            target.write(readBuffer);
+          }
+          readBuffer.clear();
+        }
+      }
+    }
+
+    /**
+     * Writes the content held in memory to the disk file and returns the memory buffers to the
+     * pool, e.g. before waiting for other buffers of the pool.
+     */
+    public void moveToDisk() throws IOException {
+      checkState(outputClosed, "file not completely written: %s", file);
+      if (isInMemory()) {
+        spillToDisk();
+      }
+    }
+
+    /** Deletes the local file and releases its disk quota and memory buffers. */
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      releaseMemoryChunks();
+
+      try {
+        if (diskChannel != null) {
+          diskChannel.close();
+        }
+      } catch (IOException ioException) {
+        logger.atWarning().withCause(ioException).log("error closing file: %s", file);
+      }
+
+      if (diskChannel != null) {
+        try {
+          Files.deleteIfExists(file.toPath());
+          logger.atFine().log("deleted file: %s", file.getAbsolutePath());
+        } catch (IOException ioException) {
+          logger.atWarning().withCause(ioException).log("error deleting file: %s", file);
+        }
+        releaseDiskBytes(diskBytes);
+      }
+    }
+
+    /**
+     * Makes room for the bytes in the memory buffers, taking buffers from the pool as needed.
+     *
+     * @return {@code false} if the bytes should go to the disk instead.
+     */
+    private boolean reserveMemory(int length) {
+      if (memoryBytes + length > inMemoryThresholdBytes) {
+        return false;
+      }
+
+      var capacity = (long) memoryChunks.size() * bufferPool.getBufferSize();
+      while (capacity < memoryBytes + length) {
+        var chunk = bufferPool.tryAcquire();
+        if (chunk == null) {
+          logger.atFine().log("buffer pool exhausted, spilling early: %s", file);
+          return false;
+        }
+        memoryChunks.add(chunk);
+        capacity += chunk.capacity();
+      }
+      return true;
+    }
+
+    private void writeToMemory(ByteBuffer source) {
+      memoryBytes += source.remaining();
+      for (var chunk : memoryChunks) {
+        if (!source.hasRemaining()) {
+          return;
+        }
+        if (source.remaining() <= chunk.remaining()) {
+          chunk.put(source);
+        } else {
+          var part = source.duplicate();
+          part.limit(part.position() + chunk.remaining());
+          chunk.put(part);
+          source.position(part.position());
+        }
+      }
+    }
+
+    private void spillToDisk() throws IOException {
+      logger.atFine().log("spilling to disk: %s", file.getAbsolutePath());
+      diskChannel =
+          FileChannel.open(
+              file.toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      // the memory buffers are still held, so waiting here could starve the files holding quota.
+      forceDiskBytes(memoryBytes, 0);
+      diskBytes = memoryBytes;
+
+      // a single gathering write of all the chunks.
+      var chunks = memoryChunks.toArray(new ByteBuffer[0]);
+      for (var chunk : chunks) {
+        chunk.flip();
+      }
+      var remaining = memoryBytes;
+      while (remaining > 0) {
+        var count = diskChannel.write(chunks);
+        IoStats.recordWrite((int) count);
+        remaining -= count;
+      }
+      releaseMemoryChunks();
+    }
+
+    private int writeToDisk(ByteBuffer source) throws IOException {
+      var length = source.remaining();
+      awaitDiskBytes(length, diskBytes, file);
+      diskBytes += length;
+      while (source.hasRemaining()) {
+        IoStats.recordWrite(diskChannel.write(source));
+      }
+      return length;
+    }
+
+    private void releaseMemoryChunks() {
+      memoryChunks.forEach(bufferPool::release);
+      memoryChunks.clear();
+      memoryBytes = 0;
+    }
+
+    /** Writes into the memory buffers and switches to the disk file once above the threshold. */
+    private class SpillingChannel implements WritableByteChannel {
+
+      @Override
+      public int write(ByteBuffer source) throws IOException {
+        checkState(!closed && !outputClosed, "file closed: %s", file);
+        var length = source.remaining();
+        if (isInMemory() && !reserveMemory(length)) {
+          spillToDisk();
+        }
+
+        if (!isInMemory()) {
+          return writeToDisk(source);
+        }
+        writeToMemory(source);
+        return length;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return !closed && !outputClosed;
+      }
+
+      @Override
+      public void close() {
+        outputClosed = true;
+      }
+    }
+  }
+}
@@ -14,14 +14,70 @@
 
 package dswebquerytobigquery;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import java.time.Instant;
+import javax.annotation.Nullable;
 
 /** Model to denote a configuration to load WebQuery into BigQuery. */
 @AutoValue
 public abstract class TransferConfig {
 
   static Builder builder() {
-    return new AutoValue_TransferConfig.Builder();
+    return new AutoValue_TransferConfig.Builder()
+        .setReportFilter(ReportFilter.NONE)
+        .setPriority(Priority.NORMAL)
+        .setLoadMode(LoadMode.TRUNCATE)
+        .setMergeKeys(ImmutableList.of());
+  }
+
+  /** How the report is written into the dated table. */
+  enum LoadMode {
+    /** Replaces the content of the table. */
+    TRUNCATE,
+    /** Updates the rows of the day's table with the same merge keys, inserts the others. */
+    MERGE;
+
+    /**
+     * Parses the mode name, ignoring case.
+     *
+     * @throws IllegalArgumentException if the name is not a load mode.
+     */
+    static LoadMode parse(String name) {
+      try {
+        return valueOf(name.trim().toUpperCase());
+      } catch (IllegalArgumentException illegalArgumentException) {
+        throw new IllegalArgumentException("invalid loadMode: " + name);
+      }
+    }
+  }
+
+  /** Scheduling class of a transfer, from the most to the least urgent. */
+  enum Priority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    /**
+     * Parses the priority name, ignoring case.
+     *
+     * @throws IllegalArgumentException if the name is not a priority.
+     */
+    static Priority parse(String name) {
+      try {
+        return valueOf(name.trim().toUpperCase());
+      } catch (IllegalArgumentException illegalArgumentException) {
+        throw new IllegalArgumentException("invalid priority: " + name);
+      }
+    }
+
+    /** Returns {@code true} if this priority is at least as urgent as the other. */
+    boolean isAtLeast(Priority other) {
+      return ordinal() <= other.ordinal();
+    }
   }
 
   public abstract BigQueryConfig getBigQueryConfig();
@@ -30,6 +86,38 @@ public abstract class TransferConfig {
 
   public abstract String getWebQueryUrl();
 
+  /** Columns and rows of the report to load. */
+  public abstract ReportFilter getReportFilter();
+
+  public abstract Priority getPriority();
+
+  /** Time by which the report should be loaded, {@code null} if it has no deadline. */
+  @Nullable
+  public abstract Instant getDeadline();
+
+  public abstract LoadMode getLoadMode();
+
+  /** Columns identifying a row within the day's table, used by {@link LoadMode#MERGE}. */
+  public abstract ImmutableList<String> getMergeKeys();
+
+  /**
+   * Returns a key identifying this transfer across runs, derived from its source and destination.
+   */
+  public String getTransferKey() {
+    return Hashing.sha256()
+        .hashString(
+            String.join(
+                "|",
+                getWebQueryUrl(),
+                getTempGcsBucketName(),
+                getBigQueryConfig().getProjectId(),
+                getBigQueryConfig().getDatasetId(),
+                getBigQueryConfig().getTableId()),
+            UTF_8)
+        .toString()
+        .substring(0, 16);
+  }
+
   @AutoValue.Builder
   public abstract static class Builder {
 
@@ -39,6 +127,16 @@ public abstract class TransferConfig {
 
     public abstract Builder setWebQueryUrl(String newWebQueryUrl);
 
+    public abstract Builder setReportFilter(ReportFilter newReportFilter);
+
+    public abstract Builder setPriority(Priority newPriority);
+
+    public abstract Builder setDeadline(@Nullable Instant newDeadline);
+
+    public abstract Builder setLoadMode(LoadMode newLoadMode);
+
+    public abstract Builder setMergeKeys(ImmutableList<String> newMergeKeys);
+
     public abstract TransferConfig build();
   }
 }
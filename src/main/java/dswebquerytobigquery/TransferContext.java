@@ -0,0 +1,66 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auto.value.AutoValue;
+
+/** Services shared by all the transfers of a run. */
+@AutoValue
+public abstract class TransferContext {
+
+  static Builder builder() {
+    return new AutoValue_TransferContext.Builder();
+  }
+
+  public abstract GoogleCredentials getCredential();
+
+  public abstract BigQueryFactory getBigQueryFactory();
+
+  public abstract StorageServiceFactory getStorageServiceFactory();
+
+  public abstract TempFileManager getTempFileManager();
+
+  public abstract BufferPool getBufferPool();
+
+  public abstract StagedReportCache getStagedReportCache();
+
+  public abstract RunJournal getRunJournal();
+
+  public abstract SchemaRegistry getSchemaRegistry();
+
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setCredential(GoogleCredentials newCredential);
+
+    public abstract Builder setBigQueryFactory(BigQueryFactory newBigQueryFactory);
+
+    public abstract Builder setStorageServiceFactory(
+        StorageServiceFactory newStorageServiceFactory);
+
+    public abstract Builder setTempFileManager(TempFileManager newTempFileManager);
+
+    public abstract Builder setBufferPool(BufferPool newBufferPool);
+
+    public abstract Builder setStagedReportCache(StagedReportCache newStagedReportCache);
+
+    public abstract Builder setRunJournal(RunJournal newRunJournal);
+
+    public abstract Builder setSchemaRegistry(SchemaRegistry newSchemaRegistry);
+
+    public abstract TransferContext build();
+  }
+}
@@ -14,92 +14,226 @@
 
 package dswebquerytobigquery;
 
-import static dswebquerytobigquery.Constants.CSV_FILE_PREFIX;
-
-import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.bigquery.Job;
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.GoogleLogger;
-import java.io.File;
+import java.io.IOException;
+import org.xml.sax.SAXException;
 
 /**
  * Provides an indempotent runner for each configuration.
+ *
+ * <p>Each completed stage is recorded in the run journal, so a resumed run skips the finished
+ * transfers, reattaches to their load jobs and reuses the reports already staged on GCS.
  */
 class TransferRunner implements Runnable {
 
   private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
 
   private final TransferConfig xferConfig;
-  private final GoogleCredentials credential;
-  private final BigQueryFactory bigQueryFactory;
-  private final StorageServiceFactory storageServiceFactory;
-  private final File csvFolder;
-
-  public TransferRunner(TransferConfig xferConfig,
-                        GoogleCredentials credential,
-                        BigQueryFactory bigQueryFactory,
-                        StorageServiceFactory storageServiceFactory,
-                        File csvFolder) {
+  private final TransferContext context;
+
+  public TransferRunner(TransferConfig xferConfig, TransferContext context) {
     this.xferConfig = xferConfig;
-    this.credential = credential;
-    this.bigQueryFactory = bigQueryFactory;
-    this.storageServiceFactory = storageServiceFactory;
-    this.csvFolder = csvFolder;
+    this.context = context;
   }
 
   @Override
   public void run() {
     logger.atInfo().log("Processing: %s", xferConfig);
 
-    var webQuery = new WebQuery(xferConfig.getWebQueryUrl(), credential);
-    // local file to store the report as CSV
-    var tempCsvFile = createCsvFile();
+    var webQuery =
+        new WebQuery(
+            xferConfig.getWebQueryUrl(), context.getCredential(), context.getBufferPool());
+    var journal = context.getRunJournal();
+    var transferKey = xferConfig.getTransferKey();
+    var progress = journal.getProgress(transferKey);
+
+    if (progress.isDone()) {
+      logger.atInfo().log("[Report %s] already completed, skipping %s",
+          webQuery.getReportId(), xferConfig);
+      return;
+    }
 
     try {
       logger.atInfo()
           .log("[Report %s] starting: url: %s", webQuery.getReportId(), webQuery.getQueryUrl());
 
-      logger.atInfo()
-          .log("[Report %s] localFile: %s", webQuery.getReportId(), tempCsvFile.getAbsolutePath());
-
-      // Convert to CSV File
-      webQuery.read().writeAsCsv(tempCsvFile);
-
-      // Copy to GCS
-      var gcsLink = new StorageController(storageServiceFactory.buildStorageService())
-          .uploadFile(tempCsvFile, xferConfig.getTempGcsBucketName(), "sa360tmp");
-
-      logger.atInfo().log("GCS Link: %s", gcsLink);
-
-      //Delete local file
-      logger.atInfo().log("marking file for deletion: %s", tempCsvFile.getAbsolutePath());
-
-      // Issue BigQuery command to consume file into a table
-      var bqJob =
+      var bigQueryProcessor =
           new BigQueryProcessor(xferConfig.getBigQueryConfig(),
-              bigQueryFactory.getBigQueryService(xferConfig.getBigQueryConfig().getProjectId()))
-              .loadFileInTable(gcsLink);
+              context.getBigQueryFactory()
+                  .getBigQueryService(xferConfig.getBigQueryConfig().getProjectId()));
+
+      // Columns of the report loaded by this run, empty when reattached or not known.
+      ImmutableList<ColumnHeader> loadedColumns = ImmutableList.of();
+
+      // Reattach to the load job of an earlier run, unless it failed.
+      var bqJob = progress.getLoadJob().map(bigQueryProcessor::findJob).orElse(null);
+      if (bqJob != null && bqJob.getStatus() != null && bqJob.getStatus().getError() != null) {
+        logger.atWarning().log("[Report %s] earlier load job %s failed: %s",
+            webQuery.getReportId(), bqJob.getJobId().getJob(), bqJob.getStatus().getError());
+        bqJob = null;
+      }
+
+      if (bqJob == null) {
+        probeDestination(bigQueryProcessor);
+
+        // Merges need the report columns for the staging table, which a staged file lacks.
+        var stagedBlob =
+            progress.getStagedBlob()
+                .filter(blobId -> xferConfig.getLoadMode() != TransferConfig.LoadMode.MERGE)
+                .map(blobId -> context.getStorageServiceFactory().buildStorageService().get(blobId))
+                .orElse(null);
+
+        StagedReport stagedReport;
+        if (stagedBlob == null) {
+          // Transfers of the same report share a single fetch.
+          stagedReport =
+              context.getStagedReportCache()
+                  .getOrStage(
+                      xferConfig,
+                      subscription -> fetchAndStage(webQuery, transferKey, subscription),
+                      newStorageController());
+          journal.recordUploaded(transferKey, stagedReport.blob().getBlobId());
+        } else {
+          logger.atInfo().log("[Report %s] reusing staged file: %s",
+              webQuery.getReportId(), stagedBlob.getBlobId());
+          // Columns are only known after parsing the report, reused files rely on auto-detection.
+          stagedReport = StagedReport.create(stagedBlob, ImmutableList.of());
+        }
+
+        // The shared fetch serves all destinations of the report, each transfer checks its own.
+        var schemaChange = checkSchema(stagedReport.columns());
+        if (!schemaChange.addedColumns().isEmpty()) {
+          logger.atInfo().log("[Report %s] adding columns: %s",
+              webQuery.getReportId(), schemaChange.addedColumns());
+        }
+
+        // Issue BigQuery command to consume file into a table
+        bqJob =
+            (xferConfig.getLoadMode() == TransferConfig.LoadMode.MERGE)
+                ? bigQueryProcessor.mergeFileInTable(
+                    xferConfig.getMergeKeys(),
+                    transferKey,
+                    stagedReport.columns(),
+                    stagedReport.blob())
+                : bigQueryProcessor.loadFileInTable(stagedReport.columns(), stagedReport.blob());
+        loadedColumns = stagedReport.columns();
+        journal.recordLoadStarted(transferKey, bqJob.getJobId());
+      } else {
+        logger.atInfo().log("[Report %s] reattached to load job %s",
+            webQuery.getReportId(), bqJob.getJobId().getJob());
+      }
 
       logger.atInfo().log(
         "[Report %s] BQ JobId:%s%nBigquery Job link: https://console.cloud.google.com/bigquery?project=%s&page=jobs",
         webQuery.getReportId(),
         bqJob.getJobId().getJob(),
         bqJob.getJobId().getProject());
+
+      try {
+        bigQueryProcessor.waitForCompletion(bqJob);
+      } finally {
+        if (xferConfig.getLoadMode() == TransferConfig.LoadMode.MERGE) {
+          bigQueryProcessor.deleteStagingTable(transferKey);
+        }
+      }
+      context.getSchemaRegistry().record(xferConfig.getBigQueryConfig(), loadedColumns);
+      journal.recordDone(transferKey);
       logger.atInfo().log("[Report %s] finished  %s", webQuery.getReportId(), xferConfig);
+    } catch (InterruptedException interruptedException) {
+      logger.atWarning().log("[Report %s] interrupted", webQuery.getReportId());
+      Thread.currentThread().interrupt();
     } catch (Exception exception) {
       logger.atSevere().withCause(exception)
           .log("[Report %s] Error Processing", webQuery.getReportId());
     }
-    finally {
-      tempCsvFile.deleteOnExit();
+  }
+
+  /**
+   * Downloads the WebQuery report as CSV and stages it on Cloud Storage.
+   *
+   * @param subscription the transfers sharing the report.
+   * @return the staged file with the columns of the report.
+   */
+  private StagedReport fetchAndStage(
+      WebQuery webQuery, String transferKey, StagedReportCache.Subscription subscription)
+      throws InterruptedException, IOException, SAXException {
+    // local file to store the report as CSV, deleted as soon as it is uploaded.
+    try (var tempCsvFile = context.getTempFileManager().newTempFile(webQuery.getReportId())) {
+      logger.atInfo()
+          .log("[Report %s] localFile: %s", webQuery.getReportId(), tempCsvFile.getName());
+
+      // Convert to CSV File, reports only this transfer needs are rejected on their header.
+      var columns =
+          webQuery.read()
+              .writeAsCsv(
+                  tempCsvFile.openChannel(),
+                  xferConfig.getReportFilter(),
+                  columnHeaders -> validateHeader(columnHeaders, subscription));
+      context.getRunJournal().recordFetched(transferKey);
+
+      // Copy to GCS
+      var gcsLink =
+          newStorageController()
+              .uploadFile(tempCsvFile, xferConfig.getTempGcsBucketName(), "sa360tmp");
+
+      logger.atInfo().log("GCS Link: %s", gcsLink);
+      return StagedReport.create(gcsLink, columns);
     }
   }
 
-  private File createCsvFile() {
-    return new File(
-      csvFolder.getAbsolutePath() + "/" +
-      String.format(
-        "%s_%s_%s.csv",
-        CSV_FILE_PREFIX,
-        Thread.currentThread().getId(),
-        new WebQuery(xferConfig.getWebQueryUrl(), credential).getReportId()));
+  /**
+   * Verifies that the staging bucket and the BigQuery dataset exist, before fetching the report.
+   *
+   * @throws IOException if either of them does not exist.
+   */
+  private void probeDestination(BigQueryProcessor bigQueryProcessor) throws IOException {
+    if (!newStorageController().bucketExists(xferConfig.getTempGcsBucketName())) {
+      throw new IOException("GCS bucket not found: " + xferConfig.getTempGcsBucketName());
+    }
+
+    if (!bigQueryProcessor.datasetExists()) {
+      throw new IOException(
+          String.format(
+              "BigQuery dataset not found: %s:%s",
+              xferConfig.getBigQueryConfig().getProjectId(),
+              xferConfig.getBigQueryConfig().getDatasetId()));
+    }
+  }
+
+  /**
+   * Aborts the download of a report whose columns cannot be loaded into the destination, unless
+   * other transfers wait for the report. Those load it into their own destinations, while this
+   * transfer fails its schema check after staging.
+   */
+  private void validateHeader(
+      ImmutableList<ColumnHeader> columns, StagedReportCache.Subscription subscription)
+      throws SAXException {
+    try {
+      checkSchema(columns);
+    } catch (IOException ioException) {
+      if (!subscription.tryDetach()) {
+        logger.atWarning().log(
+            "staging the report for other transfers despite: %s", ioException.getMessage());
+        return;
+      }
+      throw new SAXException(ioException.getMessage(), ioException);
+    }
+  }
+
+  /**
+   * Verifies the report columns against the columns last loaded into the destination.
+   *
+   * @throws IOException if the report removes or retypes columns of the destination.
+   */
+  private SchemaRegistry.SchemaChange checkSchema(ImmutableList<ColumnHeader> columns)
+      throws IOException {
+    return context.getSchemaRegistry().checkCompatible(xferConfig.getBigQueryConfig(), columns);
+  }
+
+  private StorageController newStorageController() {
+    return new StorageController(
+        context.getStorageServiceFactory().buildStorageService(), context.getBufferPool());
   }
 }
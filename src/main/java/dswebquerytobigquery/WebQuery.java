@@ -17,14 +17,13 @@ package dswebquerytobigquery;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.auth.oauth2.GoogleCredentials;
-import java.io.File;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.ccil.cowan.tagsoup.Parser;
@@ -39,11 +38,13 @@ public class WebQuery {
   private final String queryUrl;
   private final String reportId;
   private final GoogleCredentials credential;
+  private final BufferPool bufferPool;
 
-  public WebQuery(String queryUrl, GoogleCredentials credential) {
+  public WebQuery(String queryUrl, GoogleCredentials credential, BufferPool bufferPool) {
     this.queryUrl = checkNotNull(queryUrl);
     this.reportId = extractReportId(queryUrl);
     this.credential = credential;
+    this.bufferPool = bufferPool;
   }
 
   /**
@@ -63,7 +64,7 @@ public class WebQuery {
     return queryUrl;
   }
 
-  private static String extractReportId(String queryUrl) {
+  static String extractReportId(String queryUrl) {
     Matcher matcher = Pattern.compile("rid=(\\d+)").matcher(queryUrl);
     if (matcher.find()) {
       return matcher.group(1);
@@ -86,7 +87,7 @@ public class WebQuery {
      * Returns a stream by opening a connection to the WebQuery URL by providing OAuth token in the
      * header.
      *
-     * @throws IOException if credentials or URL is incorrect.
+     * @throws IOException if credentials or URL is incorrect, or the request is not successful.
      */
     InputStream getStream() throws IOException {
 
@@ -94,18 +95,52 @@ public class WebQuery {
       conn.setRequestMethod("GET");
       conn.setRequestProperty("Authorization", "Bearer " + credential.getAccessToken().getTokenValue());
 
+      // Fail on the status line, before reading any of the report.
+      var responseCode = conn.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        var responseMessage = conn.getResponseMessage();
+        conn.disconnect();
+        throw new IOException(
+            String.format("WebQuery request failed: HTTP %s %s", responseCode, responseMessage));
+      }
+
       return conn.getInputStream();
     }
 
     /**
-     * Parses and outputs the WebQuery HTML to a given CSV File.
+     * Parses and outputs the WebQuery HTML as CSV, once the listener accepted its columns.
+     *
+     * <p>The response is decoded and the CSV encoded through two buffers of the pool, taken
+     * together and waiting for them if the pool is exhausted. The channel is written in whole
+     * buffers and closed at the end of the report. The response is read through the stream of
+     * the HTTP connection, in reads of at most 8 KiB whatever the buffer size.
+     *
+     * <p>The listener is called when the table header is read, so a report which cannot be
+     * loaded is abandoned before its rows are downloaded. Otherwise parsing continues on the
+     * same connection.
+     *
+     * @param reportFilter   the columns and rows to keep.
+     * @param headerListener validates the columns, throwing to abort the download.
+     * @return the columns written with their BigQuery types.
      */
-    public void writeAsCsv(File outputFile) throws IOException, SAXException {
-      try (Reader htmlFileReader = new InputStreamReader(getStream(), StandardCharsets.UTF_8)) {
+    public ImmutableList<ColumnHeader> writeAsCsv(
+        WritableByteChannel outputChannel,
+        ReportFilter reportFilter,
+        Html2CsvParseHandler.HeaderListener headerListener)
+        throws IOException, SAXException, InterruptedException {
+      var buffers = bufferPool.acquire(2);
+      try (var htmlReader = new ChannelReader(Channels.newChannel(getStream()), buffers[0]);
+          var csvWriter = new ChannelWriter(outputChannel, buffers[1])) {
+        var csvParseHandler =
+            Html2CsvParseHandler.forWriter(csvWriter, reportFilter, headerListener);
         Parser xmlParser = new Parser();
-        xmlParser.setContentHandler(Html2CsvParseHandler.forFile(outputFile));
+        xmlParser.setContentHandler(csvParseHandler);
         xmlParser
-            .parse(new InputSource(htmlFileReader));
+            .parse(new InputSource(htmlReader));
+        return csvParseHandler.getColumnHeaders();
+      } finally {
+        bufferPool.release(buffers[0]);
+        bufferPool.release(buffers[1]);
       }
     }
   }
@@ -0,0 +1,53 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Queue of transfers shared by the worker processes of a distributed run.
+ *
+ * <p>A worker claims a transfer by taking a lease on it. The lease is kept alive by heartbeats
+ * while the transfer runs and expires when the worker dies, so another worker can take over.
+ */
+public interface WorkQueue extends AutoCloseable {
+
+  /**
+   * Claims the transfer for this worker.
+   *
+   * @return the lease, or empty if the transfer is finished or leased by a live worker.
+   */
+  Optional<Lease> tryClaim(String transferKey) throws IOException;
+
+  /** Returns true if any worker finished the transfer, successfully or not. */
+  boolean isFinished(String transferKey) throws IOException;
+
+  /** Stops the heartbeats and releases the leases still held by this worker. */
+  @Override
+  void close() throws IOException;
+
+  /** Exclusive claim of a transfer by a worker. */
+  interface Lease {
+
+    String getTransferKey();
+
+    /** Marks the transfer as finished and releases the lease. */
+    void complete(boolean succeeded) throws IOException;
+
+    /** Releases the lease without finishing the transfer, so another worker can run it. */
+    void release() throws IOException;
+  }
+}
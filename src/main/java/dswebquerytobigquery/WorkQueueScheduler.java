@@ -0,0 +1,210 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.GoogleLogger;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Runs the transfers of a distributed run, claiming them from a shared {@link WorkQueue}.
+ *
+ * <p>Transfers are sharded by report id using consistent hashing, so all transfers of a report
+ * land on the same worker and changing the number of workers moves few reports. A worker first
+ * runs its own shard, then takes over unclaimed transfers of the other shards, and waits for
+ * transfers leased by other workers until they finish or their lease expires.
+ *
+ * <p>Priorities take precedence over the shards: urgent transfers of other shards are taken over
+ * before less urgent transfers of the own shard, and threads reserved for a priority only claim
+ * transfers of that priority or a more urgent one.
+ */
+final class WorkQueueScheduler {
+
+  private static final GoogleLogger logger = GoogleLogger.forEnclosingClass();
+
+  private final WorkQueue workQueue;
+  private final TransferContext context;
+  private final int workerIndex;
+  private final int workerCount;
+  private final long pollIntervalMillis;
+  private final ImmutableMap<TransferConfig.Priority, Integer> reservedThreads;
+  private final SlaTracker slaTracker;
+
+  /** Transfers not yet claimed by this worker, own shard first. */
+  private final LinkedList<TransferConfig> pendingConfigs = new LinkedList<>();
+
+  WorkQueueScheduler(
+      WorkQueue workQueue,
+      TransferContext context,
+      int workerIndex,
+      int workerCount,
+      long pollIntervalMillis,
+      ImmutableMap<TransferConfig.Priority, Integer> reservedThreads,
+      SlaTracker slaTracker) {
+    checkArgument(workerCount > 0, "workerCount must be positive: %s", workerCount);
+    checkArgument(
+        workerIndex >= 0 && workerIndex < workerCount,
+        "workerIndex %s out of range [0, %s)", workerIndex, workerCount);
+    this.workQueue = workQueue;
+    this.context = context;
+    this.workerIndex = workerIndex;
+    this.workerCount = workerCount;
+    this.pollIntervalMillis = pollIntervalMillis;
+    this.reservedThreads = reservedThreads;
+    this.slaTracker = slaTracker;
+  }
+
+  /** Returns the worker which owns the report. */
+  static int shardOf(String reportId, int workerCount) {
+    return Hashing.consistentHash(Hashing.murmur3_128().hashString(reportId, UTF_8), workerCount);
+  }
+
+  /**
+   * Runs the transfers until every one of them is finished by some worker.
+   *
+   * @param concurrency number of transfers to run in parallel on this worker.
+   */
+  void run(List<TransferConfig> configs, int concurrency) throws InterruptedException {
+    var ordered = new ArrayList<>(configs);
+    // Most urgent first. Within a priority own shard first, then the following workers' shards,
+    // so stealing workers spread out, then by deadline.
+    ordered.sort(
+        Comparator.comparing(TransferConfig::getPriority)
+            .thenComparingInt(this::shardDistance)
+            .thenComparing(
+                TransferConfig::getDeadline,
+                Comparator.nullsLast(Comparator.<Instant>naturalOrder())));
+    pendingConfigs.addAll(ordered);
+
+    var ownShardSize = ordered.stream().filter(config -> shardDistance(config) == 0).count();
+    logger.atInfo().log(
+        "worker %s/%s: %s transfers, %s in own shard",
+        workerIndex, workerCount, configs.size(), ownShardSize);
+
+    var completedCount = new AtomicInteger();
+    var executor = Executors.newFixedThreadPool(concurrency);
+    for (var threadPriority :
+        PriorityTransferScheduler.assignThreadPriorities(concurrency, reservedThreads)) {
+      executor.execute(() -> runClaimedTransfers(threadPriority, completedCount));
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+    logger.atInfo().log("worker %s ran %s transfers", workerIndex, completedCount.get());
+  }
+
+  private void runClaimedTransfers(
+      TransferConfig.Priority threadPriority, AtomicInteger completedCount) {
+    try {
+      while (true) {
+        var lease = claimNext(threadPriority);
+        if (lease == null) {
+          if (!hasPendingConfigs(threadPriority)) {
+            return;
+          }
+          // remaining transfers are leased by other workers.
+          Thread.sleep(pollIntervalMillis);
+          continue;
+        }
+
+        var config = lease.config;
+        new TransferRunner(config, context).run();
+
+        if (Thread.currentThread().isInterrupted()) {
+          lease.lease.release();
+          return;
+        }
+        var succeeded = context.getRunJournal().getProgress(config.getTransferKey()).isDone();
+        lease.lease.complete(succeeded);
+        slaTracker.recordFinished(config, succeeded);
+        completedCount.incrementAndGet();
+      }
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    } catch (IOException ioException) {
+      logger.atSevere().withCause(ioException).log("work queue failure, worker thread stopped");
+    }
+  }
+
+  /**
+   * Claims the first pending transfer the thread may run which is not leased by another worker.
+   *
+   * @return the claimed transfer, or {@code null} if none could be claimed now.
+   */
+  @Nullable
+  private synchronized ClaimedTransfer claimNext(TransferConfig.Priority threadPriority)
+      throws IOException {
+    var iterator = pendingConfigs.iterator();
+    while (iterator.hasNext()) {
+      var config = iterator.next();
+      if (!config.getPriority().isAtLeast(threadPriority)) {
+        // pending configs are ordered by priority.
+        break;
+      }
+      var transferKey = config.getTransferKey();
+
+      if (workQueue.isFinished(transferKey)) {
+        iterator.remove();
+        continue;
+      }
+
+      var lease = workQueue.tryClaim(transferKey);
+      if (lease.isPresent()) {
+        iterator.remove();
+        if (shardDistance(config) != 0) {
+          logger.atInfo().log("taking over transfer from shard %s: %s",
+              shardOf(WebQuery.extractReportId(config.getWebQueryUrl()), workerCount), config);
+        }
+        return new ClaimedTransfer(config, lease.get());
+      }
+    }
+    return null;
+  }
+
+  private synchronized boolean hasPendingConfigs(TransferConfig.Priority threadPriority) {
+    return pendingConfigs.stream()
+        .anyMatch(config -> config.getPriority().isAtLeast(threadPriority));
+  }
+
+  /** Number of shards between this worker and the shard of the transfer. */
+  private int shardDistance(TransferConfig config) {
+    var shard = shardOf(WebQuery.extractReportId(config.getWebQueryUrl()), workerCount);
+    return Math.floorMod(shard - workerIndex, workerCount);
+  }
+
+  private static final class ClaimedTransfer {
+
+    private final TransferConfig config;
+    private final WorkQueue.Lease lease;
+
+    private ClaimedTransfer(TransferConfig config, WorkQueue.Lease lease) {
+      this.config = config;
+      this.lease = lease;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.collect.ImmutableList;
+import java.util.TimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BigQueryProcessorTest {
+
+  private static final TableId TABLE_ID = TableId.of("project", "dataset", "report_20261019");
+  private static final TableId STAGING_TABLE_ID =
+      TableId.of("project", "dataset", "dswq_staging_report_20261019_key");
+  private static final ImmutableList<Field> FIELDS =
+      ImmutableList.of(
+          Field.of("campaign", LegacySQLTypeName.STRING),
+          Field.of("cost", LegacySQLTypeName.FLOAT),
+          Field.of(Constants.REPORT_PULL_TIMESTAMP_COLUMN_NAME, LegacySQLTypeName.TIMESTAMP));
+
+  private TimeZone defaultTimeZone;
+
+  @Before
+  public void setUp() {
+    defaultTimeZone = TimeZone.getDefault();
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+  }
+
+  @Test
+  public void buildMergeScript_nonUtcTimeZone_matchesOnMergeKeysOnly() {
+    TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    var utcScript = buildMergeScript();
+    // the pull timestamps of a day's table span two local dates here.
+    TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+    var script = buildMergeScript();
+
+    assertEquals(utcScript, script);
+    assertFalse(script.contains("DATE("));
+    assertTrue(script.contains("PARTITION BY `campaign` ORDER BY `reporting_date` DESC"));
+    assertTrue(
+        script.contains(
+            "ON (target.`campaign` = source.`campaign`"
+                + " OR (target.`campaign` IS NULL AND source.`campaign` IS NULL))\n"));
+  }
+
+  private static String buildMergeScript() {
+    return BigQueryProcessor.buildMergeScript(
+        TABLE_ID, FIELDS, STAGING_TABLE_ID, FIELDS, ImmutableList.of("campaign"));
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ColumnDictionaryTest {
+
+  private static final int SAMPLE_LOOKUPS = 10_000;
+
+  @Test
+  public void lookup_repeatedValues_staysEnabled() {
+    var dictionary = new ColumnDictionary(16, 64);
+    dictionary.put("Mobile", "\"Mobile\"");
+
+    for (int lookup = 0; lookup < 2 * SAMPLE_LOOKUPS; lookup++) {
+      assertEquals("\"Mobile\"", dictionary.lookup("Mobile"));
+    }
+
+    assertTrue(dictionary.isEnabled());
+  }
+
+  @Test
+  public void lookup_uniqueValues_disablesAfterSample() {
+    var dictionary = new ColumnDictionary(16, 64);
+
+    for (int lookup = 0; lookup < SAMPLE_LOOKUPS; lookup++) {
+      assertNull(dictionary.lookup("keyword " + lookup));
+    }
+
+    assertFalse(dictionary.isEnabled());
+  }
+
+  @Test
+  public void lookup_hitOnLastSampleLookup_disables() {
+    var dictionary = new ColumnDictionary(16, 64);
+    dictionary.put("Mobile", "\"Mobile\"");
+
+    for (int lookup = 0; lookup < SAMPLE_LOOKUPS - 1; lookup++) {
+      dictionary.lookup("keyword " + lookup);
+    }
+    assertEquals("\"Mobile\"", dictionary.lookup("Mobile"));
+
+    assertEquals(1, dictionary.getHits());
+    assertFalse(dictionary.isEnabled());
+    assertNull(dictionary.lookup("Mobile"));
+  }
+}
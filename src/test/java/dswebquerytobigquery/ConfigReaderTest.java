@@ -0,0 +1,59 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import org.junit.Test;
+
+public class ConfigReaderTest {
+
+  private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+
+  /** 2026-10-19 07:05 in Berlin. */
+  private static final Clock RUN_CLOCK = Clock.fixed(Instant.parse("2026-10-19T05:05:00Z"), ZONE);
+
+  @Test
+  public void parseDeadline_timeOfDayLater_runDate() {
+    assertEquals(
+        Instant.parse("2026-10-19T06:00:00Z"), ConfigReader.parseDeadline("08:00", RUN_CLOCK));
+  }
+
+  @Test
+  public void parseDeadline_timeOfDayPassed_staysOnRunDate() {
+    var deadline = ConfigReader.parseDeadline("07:00", RUN_CLOCK);
+
+    assertEquals(Instant.parse("2026-10-19T05:00:00Z"), deadline);
+    assertTrue(deadline.isBefore(RUN_CLOCK.instant()));
+  }
+
+  @Test
+  public void parseDeadline_dateTimeWithOffset_ignoresClock() {
+    assertEquals(
+        Instant.parse("2026-10-20T05:00:00Z"),
+        ConfigReader.parseDeadline("2026-10-20T07:00:00+02:00", RUN_CLOCK));
+  }
+
+  @Test
+  public void parseDeadline_invalid_throwsException() {
+    assertThrows(
+        IllegalArgumentException.class, () -> ConfigReader.parseDeadline("7am", RUN_CLOCK));
+  }
+}
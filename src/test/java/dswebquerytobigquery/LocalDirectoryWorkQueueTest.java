@@ -0,0 +1,73 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalDirectoryWorkQueueTest {
+
+  private static final long LEASE_TIMEOUT_MILLIS = 60_000;
+
+  private Path queueDir;
+
+  @Before
+  public void setUp() throws IOException {
+    queueDir = Files.createTempDirectory("dswq-test");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (var files = Files.list(queueDir)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(queueDir);
+  }
+
+  @Test
+  public void open_sameDay_sharesFinishedTransfers() throws IOException {
+    try (var firstWorker = newQueue("first")) {
+      firstWorker.tryClaim("transfer").orElseThrow().complete(/*succeeded=*/ true);
+    }
+
+    try (var secondWorker = newQueue("second")) {
+      assertTrue(secondWorker.isFinished("transfer"));
+      assertFalse(secondWorker.tryClaim("transfer").isPresent());
+    }
+  }
+
+  @Test
+  public void open_runOfOtherDay_throwsException() throws IOException {
+    Files.write(queueDir.resolve("RUN_DATE"), List.of("20000101"), UTF_8);
+
+    assertThrows(IOException.class, () -> newQueue("worker"));
+  }
+
+  private LocalDirectoryWorkQueue newQueue(String workerId) throws IOException {
+    return new LocalDirectoryWorkQueue(queueDir.toFile(), workerId, LEASE_TIMEOUT_MILLIS);
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SchemaRegistryTest {
+
+  private static final ImmutableList<ColumnHeader> COLUMNS =
+      ImmutableList.of(ColumnHeader.create("campaign", "STRING"));
+
+  private Path tempFolder;
+  private File registryFile;
+
+  @Before
+  public void setUp() throws IOException {
+    tempFolder = Files.createTempDirectory("dswq-test");
+    registryFile = tempFolder.resolve("schema-registry.tsv").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (var files = Files.list(tempFolder)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(tempFolder);
+  }
+
+  @Test
+  public void record_sharedFile_keepsRecordsOfAllWorkers() throws IOException {
+    var firstWorker = SchemaRegistry.open(registryFile, /*acceptIncompatibleChanges=*/ false);
+    var secondWorker = SchemaRegistry.open(registryFile, /*acceptIncompatibleChanges=*/ false);
+
+    firstWorker.record(destination("first"), COLUMNS);
+    secondWorker.record(destination("second"), COLUMNS);
+
+    assertEquals(2, Files.readAllLines(registryFile.toPath()).size());
+  }
+
+  @Test
+  public void checkCompatible_recordedByOtherWorker_throwsException() throws IOException {
+    var firstWorker = SchemaRegistry.open(registryFile, /*acceptIncompatibleChanges=*/ false);
+    var secondWorker = SchemaRegistry.open(registryFile, /*acceptIncompatibleChanges=*/ false);
+
+    firstWorker.record(destination("first"), COLUMNS);
+
+    assertThrows(
+        IOException.class,
+        () ->
+            secondWorker.checkCompatible(
+                destination("first"), ImmutableList.of(ColumnHeader.create("device", "STRING"))));
+  }
+
+  private static BigQueryConfig destination(String tableId) {
+    return BigQueryConfig.builder()
+        .setProjectId("project")
+        .setDatasetId("dataset")
+        .setTableId(tableId)
+        .build();
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TempFileManagerTest {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final long QUOTA_BYTES = 4L * BUFFER_SIZE;
+
+  private Path tempFolder;
+  private TempFileManager tempFileManager;
+
+  @Before
+  public void setUp() throws IOException {
+    tempFolder = Files.createTempDirectory("dswq-test");
+    tempFileManager =
+        new TempFileManager(
+            tempFolder.toFile(),
+            QUOTA_BYTES,
+            /*inMemoryThresholdBytes=*/ 0,
+            new BufferPool(4L * BUFFER_SIZE, BUFFER_SIZE));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (var files = Files.list(tempFolder)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(tempFolder);
+  }
+
+  @Test
+  public void write_quotaUsedUp_waitsForClosedFile() throws Exception {
+    var firstFile = tempFileManager.newTempFile("1");
+    firstFile.openChannel().write(ByteBuffer.allocate(3 * BUFFER_SIZE));
+    var secondFile = tempFileManager.newTempFile("2");
+    var secondChannel = secondFile.openChannel();
+
+    var secondWrite =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return secondChannel.write(ByteBuffer.allocate(2 * BUFFER_SIZE));
+              } catch (IOException ioException) {
+                throw new RuntimeException(ioException);
+              }
+            });
+
+    assertThrows(TimeoutException.class, () -> secondWrite.get(200, TimeUnit.MILLISECONDS));
+    firstFile.close();
+    assertEquals(2 * BUFFER_SIZE, (int) secondWrite.get(5, TimeUnit.SECONDS));
+    assertEquals(2L * BUFFER_SIZE, tempFileManager.getDiskBytesInUse());
+    secondFile.close();
+  }
+
+  @Test
+  public void write_reportLargerThanQuota_throwsException() throws Exception {
+    try (var file = tempFileManager.newTempFile("1")) {
+      var channel = file.openChannel();
+      channel.write(ByteBuffer.allocate(3 * BUFFER_SIZE));
+
+      var exception =
+          assertThrows(
+              IOException.class, () -> channel.write(ByteBuffer.allocate(2 * BUFFER_SIZE)));
+      assertTrue(exception.getMessage().contains("exceeds the temp disk quota"));
+    }
+    assertEquals(0, tempFileManager.getDiskBytesInUse());
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package dswebquerytobigquery;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs transfers against the fake services of the load test. */
+public class TransferRunnerTest {
+
+  private static final String PROJECT_ID = "fake-project";
+  private static final String BUCKET_NAME = "fake-bucket";
+  private static final long REPORT_LATENCY_MILLIS = 1_000;
+  private static final int ROW_COUNT = 100;
+
+  private Path tempFolder;
+  private FakeWebQueryServer server;
+  private FakeStorage storage;
+  private FakeBigQuery bigQuery;
+  private RunJournal journal;
+
+  @Before
+  public void setUp() throws IOException {
+    tempFolder = Files.createTempDirectory("dswq-test");
+    server = FakeWebQueryServer.start();
+    storage = new FakeStorage();
+    bigQuery = new FakeBigQuery(storage);
+    journal = RunJournal.create(tempFolder.resolve("journal.tsv").toFile());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    journal.close();
+    server.close();
+    try (var files = Files.list(tempFolder)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(tempFolder);
+  }
+
+  @Test
+  public void run_incompatibleReport_abandonedBeforeStaging() throws Exception {
+    var context = newContext(newIncompatibleRegistry());
+    var incompatible = newConfig(server.reportUrl(1, 100, 0, 0), "incompatible");
+
+    new TransferRunner(incompatible, context).run();
+
+    assertFalse(journal.getProgress(incompatible.getTransferKey()).isDone());
+    assertEquals(0, storage.getObjectCount());
+    assertEquals(0, bigQuery.getLoadJobs().size());
+  }
+
+  @Test
+  public void run_sharedReport_incompatibleDestinationFailsAlone() throws Exception {
+    var context = newContext(newIncompatibleRegistry());
+    var reportUrl = server.reportUrl(1, 100, REPORT_LATENCY_MILLIS, 0);
+    var incompatible = newConfig(reportUrl, "incompatible");
+    var compatible = newConfig(reportUrl, "compatible");
+
+    // the incompatible transfer fetches the report, the other one waits for it.
+    var fetchingTransfer = new Thread(new TransferRunner(incompatible, context));
+    fetchingTransfer.start();
+    Thread.sleep(REPORT_LATENCY_MILLIS / 5);
+    var waitingTransfer = new Thread(new TransferRunner(compatible, context));
+    waitingTransfer.start();
+    fetchingTransfer.join();
+    waitingTransfer.join();
+
+    assertFalse(journal.getProgress(incompatible.getTransferKey()).isDone());
+    assertTrue(journal.getProgress(compatible.getTransferKey()).isDone());
+    assertEquals(1, server.getRequestCount());
+    assertEquals(1, bigQuery.getLoadJobs().size());
+  }
+
+  @Test
+  public void run_firstMergesOfDay_allMergedIntoCreatedTable() throws Exception {
+    var context = newContext(newEmptyRegistry());
+    var configs = new TransferConfig[2];
+    var transfers = new Thread[2];
+    for (int index = 0; index < transfers.length; index++) {
+      configs[index] =
+          newConfigBuilder(server.reportUrl(index + 1, ROW_COUNT, REPORT_LATENCY_MILLIS, 0), "merged")
+              .setLoadMode(TransferConfig.LoadMode.MERGE)
+              .setMergeKeys(ImmutableList.of("campaign"))
+              .build();
+      transfers[index] = new Thread(new TransferRunner(configs[index], context));
+      transfers[index].start();
+    }
+    for (var transfer : transfers) {
+      transfer.join();
+    }
+
+    // neither transfer replaced the day's table, both went through a staging table.
+    for (var config : configs) {
+      assertTrue(journal.getProgress(config.getTransferKey()).isDone());
+    }
+    assertEquals(2, bigQuery.getLoadJobs().size());
+    for (var loadJob : bigQuery.getLoadJobs()) {
+      assertTrue(
+          loadJob.getDestinationTable().getTableId().startsWith(Constants.STAGING_TABLE_PREFIX));
+    }
+    assertEquals(
+        2 * ROW_COUNT,
+        bigQuery.getRows(PROJECT_ID, "test", "merged_" + BigQueryProcessor.getDateSuffix())
+            .size());
+  }
+
+  private SchemaRegistry newEmptyRegistry() throws IOException {
+    return SchemaRegistry.open(
+        tempFolder.resolve("schema-registry.tsv").toFile(), /*acceptIncompatibleChanges=*/ false);
+  }
+
+  /** Returns a registry in which the table {@code incompatible} has a column the report lacks. */
+  private SchemaRegistry newIncompatibleRegistry() throws IOException {
+    var registryFile = tempFolder.resolve("schema-registry.tsv");
+    Files.write(
+        registryFile,
+        List.of(PROJECT_ID + ":test.incompatible\tremoved_column:STRING"),
+        UTF_8);
+    return SchemaRegistry.open(registryFile.toFile(), /*acceptIncompatibleChanges=*/ false);
+  }
+
+  private TransferContext newContext(SchemaRegistry schemaRegistry) {
+    var bufferPool =
+        new BufferPool(
+            Constants.DEFAULT_BUFFER_POOL_MB * 1024L * 1024L,
+            Constants.DEFAULT_BUFFER_SIZE_KB * 1024);
+
+    return TransferContext.builder()
+        .setCredential(
+            GoogleCredentials.create(new AccessToken("fake-token", new Date(Long.MAX_VALUE))))
+        .setBigQueryFactory(bigQuery::createService)
+        .setStorageServiceFactory(storage::createService)
+        .setTempFileManager(
+            new TempFileManager(
+                tempFolder.toFile(),
+                Constants.DEFAULT_TEMP_DISK_QUOTA_MB * 1024L * 1024L,
+                Constants.DEFAULT_IN_MEMORY_THRESHOLD_KB * 1024,
+                bufferPool))
+        .setBufferPool(bufferPool)
+        .setStagedReportCache(new StagedReportCache())
+        .setRunJournal(journal)
+        .setSchemaRegistry(schemaRegistry)
+        .build();
+  }
+
+  private static TransferConfig newConfig(String reportUrl, String tableId) {
+    return newConfigBuilder(reportUrl, tableId).build();
+  }
+
+  private static TransferConfig.Builder newConfigBuilder(String reportUrl, String tableId) {
+    return TransferConfig.builder()
+        .setWebQueryUrl(reportUrl)
+        .setTempGcsBucketName(BUCKET_NAME)
+        .setBigQueryConfig(
+            BigQueryConfig.builder()
+                .setProjectId(PROJECT_ID)
+                .setDatasetId("test")
+                .setTableId(tableId)
+                .build());
+  }
+}